@@ -0,0 +1,60 @@
+/*
+ * FactorizerMetrics.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch2;
+
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+import net.jcip.util.LatencyHistogram;
+
+/**
+ * {@link FactorizerMetrics} counts requests and cache hits for the factoring servlets and records their latency.
+ * <p>
+ * {@link CachedFactorizer} used to count inside its synchronized block, and {@link CountingFactorizer} with a single {@link
+ * java.util.concurrent.atomic.AtomicLong}; either way, every request on every core updates the same memory location, and the
+ * counters become a serialization point of their own. Here each counter is a {@link LongAdder}, which spreads updates over striped
+ * cells and only adds them up when read, and latencies go into a {@link LatencyHistogram} built the same way.
+ * <p>
+ * Because the counters are independent, a reader may see a cache hit counted before the request it belongs to; {@link
+ * #getCacheHitRatio()} and {@link #getMisses()} are therefore approximate while requests are in flight, and exact once they are
+ * quiescent.
+ */
+@ThreadSafe
+public class FactorizerMetrics {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public void recordCacheHit(long latencyNanos) {
+        hits.increment();
+        cacheHits.increment();
+        latency.record(latencyNanos);
+    }
+
+    public void recordCacheMiss(long latencyNanos) {
+        hits.increment();
+        latency.record(latencyNanos);
+    }
+
+    public long getHits() { return hits.sum(); }
+
+    public long getCacheHits() { return cacheHits.sum(); }
+
+    public long getMisses() { return Math.max(0, hits.sum() - cacheHits.sum()); }
+
+    public double getCacheHitRatio() {
+        long cacheHits = this.cacheHits.sum();
+        long hits = this.hits.sum();
+        return hits == 0 ? 0.0 : Math.min(1.0, (double) cacheHits / (double) hits);
+    }
+
+    public LatencyHistogram getLatency() { return latency; }
+}
@@ -12,13 +12,40 @@
 package net.jcip.ch2;
 
 import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import net.jcip.ch5.cache.Computable;
+import net.jcip.ch5.cache.SingleFlight;
 
+/**
+ * Base class of the factoring servlets. Subclasses decide how results are cached and counted; {@link #factor(BigInteger)} does the
+ * actual work with {@link PrimeFactorizer}, except for numbers of at least {@code parallelThresholdBits} bits (an init parameter,
+ * {@value #DEFAULT_PARALLEL_THRESHOLD_BITS} by default), which are handed to a {@link ParallelFactorizer} that may use up to {@code
+ * maxParallelism} workers of the common fork/join pool.
+ * <p>
+ * Concurrent requests for the same number share one computation through a {@link SingleFlight}, and every one of them receives
+ * the same factors array, which is why subclasses must not modify it. Numbers below 2<sup>{@value #COALESCE_THRESHOLD_BITS}</sup>
+ * are factored directly, since trial division is cheaper than coordinating with other threads.
+ */
 public abstract class FactorizerServlet implements Servlet {
+    public static final String PARALLEL_THRESHOLD_BITS_PARAM = "parallelThresholdBits";
+    public static final String MAX_PARALLELISM_PARAM = "maxParallelism";
+    public static final int DEFAULT_PARALLEL_THRESHOLD_BITS = 100;
+    private static final int COALESCE_THRESHOLD_BITS = 32;
+
+    private volatile ServletConfig servletConfig;
+    private volatile int parallelThresholdBits = DEFAULT_PARALLEL_THRESHOLD_BITS;
+    private volatile ParallelFactorizer parallelFactorizer = new ParallelFactorizer();
+    private final SingleFlight<BigInteger, BigInteger[]> inFlight = new SingleFlight<BigInteger, BigInteger[]>(
+                    new Computable<BigInteger, BigInteger[]>() {
+                        public BigInteger[] compute(BigInteger arg) {
+                            return computeFactors(arg);
+                        }
+                    });
 
     public String getServletInfo() {
         return null;
@@ -29,7 +56,20 @@ public abstract class FactorizerServlet implements Servlet {
     }
 
     protected BigInteger[] factor(BigInteger aI) {
-        return new BigInteger[]{BigInteger.ONE};
+        if (aI.bitLength() < COALESCE_THRESHOLD_BITS)
+            return PrimeFactorizer.factor(aI);
+        try {
+            return inFlight.compute(aI);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return computeFactors(aI);
+        }
+    }
+
+    private BigInteger[] computeFactors(BigInteger aI) {
+        if (aI.bitLength() >= parallelThresholdBits)
+            return parallelFactorizer.factor(aI);
+        return PrimeFactorizer.factor(aI);
     }
 
     protected void encodeIntoResponse(ServletResponse aResp, BigInteger[] aFactors) {
@@ -40,10 +80,31 @@ public abstract class FactorizerServlet implements Servlet {
     }
 
     public void init(ServletConfig aServletConfig) throws ServletException {
-
+        servletConfig = aServletConfig;
+        parallelThresholdBits = getIntInitParameter(PARALLEL_THRESHOLD_BITS_PARAM, DEFAULT_PARALLEL_THRESHOLD_BITS);
+        int maxParallelism = getIntInitParameter(MAX_PARALLELISM_PARAM, parallelFactorizer.getMaxParallelism());
+        if (maxParallelism <= 0)
+            throw new ServletException(MAX_PARALLELISM_PARAM + " must be positive: " + maxParallelism);
+        parallelFactorizer = new ParallelFactorizer(ForkJoinPool.commonPool(), maxParallelism);
     }
 
     public ServletConfig getServletConfig() {
-        return null;
+        return servletConfig;
+    }
+
+    /**
+     * Returns the named init parameter parsed as an int, or {@code defaultValue} when the servlet has not been initialized or the
+     * parameter is not set.
+     */
+    protected int getIntInitParameter(String name, int defaultValue) throws ServletException {
+        ServletConfig config = servletConfig;
+        String value = config == null ? null : config.getInitParameter(name);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("init parameter " + name + " is not an integer: " + value, e);
+        }
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * ParallelFactorizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch2;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link ParallelFactorizer} factors large numbers on a shared {@link ForkJoinPool} instead of on the calling thread alone.
+ * <p>
+ * Pollard's rho is a random walk, and how long it takes to find a factor depends heavily on the seed. So rather than running one
+ * walk, {@link #factor(BigInteger)} races several of them with different seeds as {@link RecursiveTask}s. The first attempt to find
+ * a divisor publishes it and sets a shared cancellation flag, which the other attempts poll once per batch of iterations; attempts
+ * that have not started yet are cancelled outright. Once a divisor splits the number, both halves are factored in parallel the same
+ * way.
+ * <p>
+ * Because the pool is shared by all requests, each call gets a budget of {@code maxParallelism - 1} permits for forking subtasks
+ * (the calling task itself makes up the last one). A task that cannot get a permit runs its work inline instead, so one huge
+ * number never occupies more than {@code maxParallelism} workers at a time and cannot starve the others.
+ */
+@ThreadSafe
+public class ParallelFactorizer {
+    private final ForkJoinPool pool;
+    private final int maxParallelism;
+    private final AtomicLong seeds = new AtomicLong(1);
+
+    public ParallelFactorizer() {
+        this(ForkJoinPool.commonPool(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public ParallelFactorizer(ForkJoinPool pool, int maxParallelism) {
+        if (maxParallelism <= 0)
+            throw new IllegalArgumentException("maxParallelism must be positive: " + maxParallelism);
+        this.pool = pool;
+        this.maxParallelism = maxParallelism;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public BigInteger[] factor(BigInteger n) {
+        if (n.bitLength() < Long.SIZE)
+            return PrimeFactorizer.factor(n);
+        List<BigInteger> factors = new ArrayList<BigInteger>();
+        BigInteger rest = PrimeFactorizer.removeSmallFactors(n, factors);
+        factors.addAll(pool.invoke(new SplitTask(rest, new Semaphore(maxParallelism - 1))));
+        Collections.sort(factors);
+        return factors.toArray(new BigInteger[factors.size()]);
+    }
+
+    /**
+     * Factors a number with no prime factors below {@link PrimeFactorizer#LARGE_TRIAL_LIMIT}.
+     */
+    private class SplitTask extends RecursiveTask<List<BigInteger>> {
+        private static final long serialVersionUID = 1L;
+        private final BigInteger n;
+        private final Semaphore budget;
+
+        SplitTask(BigInteger n, Semaphore budget) {
+            this.n = n;
+            this.budget = budget;
+        }
+
+        protected List<BigInteger> compute() {
+            if (n.equals(BigInteger.ONE))
+                return Collections.emptyList();
+            if (n.bitLength() < Long.SIZE)
+                return Arrays.asList(PrimeFactorizer.factor(n));
+            if (PrimeFactorizer.isProbablePrime(n))
+                return Collections.singletonList(n);
+            BigInteger d = findDivisor();
+            SplitTask left = new SplitTask(d, budget);
+            SplitTask right = new SplitTask(n.divide(d), budget);
+            List<BigInteger> result = new ArrayList<BigInteger>();
+            if (budget.tryAcquire()) {
+                try {
+                    left.fork();
+                    result.addAll(right.compute());
+                    result.addAll(left.join());
+                } finally {
+                    budget.release();
+                }
+            } else {
+                result.addAll(left.compute());
+                result.addAll(right.compute());
+            }
+            return result;
+        }
+
+        private BigInteger findDivisor() {
+            while (true) {
+                int forked = 0;
+                while (forked < maxParallelism - 1 && budget.tryAcquire())
+                    forked++;
+                try {
+                    BigInteger d = race(forked + 1);
+                    if (d != null)
+                        return d;
+                } finally {
+                    budget.release(forked);
+                }
+            }
+        }
+
+        /**
+         * Runs {@code attempts} rho walks with fresh seeds, all but one of them forked, and returns the first divisor found, or null
+         * if every walk failed.
+         */
+        private BigInteger race(int attempts) {
+            AtomicReference<BigInteger> found = new AtomicReference<BigInteger>();
+            AtomicBoolean cancelled = new AtomicBoolean();
+            RhoAttempt[] siblings = new RhoAttempt[attempts];
+            for (int i = 0; i < attempts; i++)
+                siblings[i] = new RhoAttempt(n, seeds.getAndIncrement(), found, cancelled, siblings);
+            for (int i = 1; i < attempts; i++)
+                siblings[i].fork();
+            siblings[0].compute();
+            for (int i = 1; i < attempts; i++)
+                siblings[i].quietlyJoin();
+            return found.get();
+        }
+    }
+
+    private static class RhoAttempt extends RecursiveTask<BigInteger> {
+        private static final long serialVersionUID = 1L;
+        private final BigInteger n;
+        private final long seed;
+        private final AtomicReference<BigInteger> found;
+        private final AtomicBoolean cancelled;
+        private final RhoAttempt[] siblings;
+
+        RhoAttempt(BigInteger n, long seed, AtomicReference<BigInteger> found, AtomicBoolean cancelled, RhoAttempt[] siblings) {
+            this.n = n;
+            this.seed = seed;
+            this.found = found;
+            this.cancelled = cancelled;
+            this.siblings = siblings;
+        }
+
+        protected BigInteger compute() {
+            BigInteger d = PrimeFactorizer.brent(n, seed, cancelled);
+            if (d != null && !d.equals(n) && found.compareAndSet(null, d)) {
+                cancelled.set(true);
+                for (RhoAttempt sibling : siblings) {
+                    if (sibling != this)
+                        sibling.cancel(false);
+                }
+            }
+            return d;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * PrimeFactorizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch2;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link PrimeFactorizer} is the factoring engine behind {@link FactorizerServlet#factor(BigInteger)}. It is stateless apart from a
+ * table of small primes that is computed once and never modified afterwards, so it is thread-safe and can be shared freely.
+ * <p>
+ * The algorithm is picked by the size of the input:
+ * <ul>
+ * <li>below 2<sup>32</sup>, trial division by the prime table alone is enough, since every composite has a factor below
+ * 2<sup>16</sup>;</li>
+ * <li>below 2<sup>63</sup>, the number stays in a {@code long}: after trial division by the primes below {@value
+ * #LARGE_TRIAL_LIMIT}, the cofactor is split with Brent's variant of Pollard's rho and tested with a deterministic Miller–Rabin,
+ * both using Montgomery multiplication so that no {@link BigInteger} is ever allocated;</li>
+ * <li>anything larger uses the same trial division and Brent rho on {@link BigInteger}, with {@link
+ * BigInteger#isProbablePrime(int)} as the primality test, and drops to the {@code long} path as soon as a cofactor fits.</li>
+ * </ul>
+ * Factors are returned in ascending order with multiplicity. Numbers below 2 have no prime factorization and are returned as a
+ * single-element array holding the number itself.
+ */
+@ThreadSafe
+public final class PrimeFactorizer {
+    static final int LARGE_TRIAL_LIMIT = 1024;
+    private static final int SMALL_PRIME_LIMIT = 1 << 16;
+    private static final int[] SMALL_PRIMES = sieve(SMALL_PRIME_LIMIT);
+    private static final BigInteger[] LARGE_TRIAL_PRIMES = largeTrialPrimes();
+    private static final long[] MILLER_RABIN_BASES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+    private static final int CERTAINTY = 64;
+    private static final int BRENT_BATCH = 128;
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    private PrimeFactorizer() {
+    }
+
+    public static BigInteger[] factor(BigInteger n) {
+        if (n.compareTo(TWO) < 0)
+            return new BigInteger[]{n};
+        if (n.bitLength() < Long.SIZE)
+            return toBigIntegers(factor(n.longValue()));
+        List<BigInteger> factors = new ArrayList<BigInteger>();
+        split(removeSmallFactors(n, factors), factors);
+        Collections.sort(factors);
+        return factors.toArray(new BigInteger[factors.size()]);
+    }
+
+    public static long[] factor(long n) {
+        if (n < 2)
+            return new long[]{n};
+        // a number below 2^63 has at most 62 prime factors
+        long[] factors = new long[Long.SIZE];
+        int count = 0;
+        boolean proven = false;
+        for (int p : SMALL_PRIMES) {
+            if ((long) p * p > n) {
+                proven = true;
+                break;
+            }
+            if (p >= LARGE_TRIAL_LIMIT && n >= (long) SMALL_PRIME_LIMIT * SMALL_PRIME_LIMIT)
+                break;
+            while (n % p == 0) {
+                factors[count++] = p;
+                n /= p;
+            }
+        }
+        if (n > 1) {
+            if (proven)
+                factors[count++] = n;
+            else
+                count = split(n, factors, count);
+        }
+        Arrays.sort(factors, 0, count);
+        return Arrays.copyOf(factors, count);
+    }
+
+    public static boolean isPrime(long n) {
+        if (n < 2)
+            return false;
+        for (long p : MILLER_RABIN_BASES) {
+            if (n % p == 0)
+                return n == p;
+        }
+        if (n < 41 * 41)
+            return true;
+        Montgomery m = new Montgomery(n);
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>= s;
+        long minusOne = n - m.one;
+        for (long a : MILLER_RABIN_BASES) {
+            long x = m.pow(m.toMontgomery(a), d);
+            if (x == m.one || x == minusOne)
+                continue;
+            boolean composite = true;
+            for (int r = 1; r < s && composite; r++) {
+                x = m.multiply(x, x);
+                if (x == minusOne)
+                    composite = false;
+            }
+            if (composite)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the prime factors of {@code n} below {@value #LARGE_TRIAL_LIMIT} to {@code factors} and returns what is left of {@code n}.
+     */
+    static BigInteger removeSmallFactors(BigInteger n, List<BigInteger> factors) {
+        for (BigInteger p : LARGE_TRIAL_PRIMES) {
+            while (n.mod(p).signum() == 0) {
+                factors.add(p);
+                n = n.divide(p);
+            }
+        }
+        return n;
+    }
+
+    static boolean isProbablePrime(BigInteger n) {
+        return n.bitLength() < Long.SIZE ? isPrime(n.longValue()) : n.isProbablePrime(CERTAINTY);
+    }
+
+    /**
+     * Splits off every prime factor of an odd {@code n} that has no factors below {@value #LARGE_TRIAL_LIMIT}.
+     */
+    private static int split(long n, long[] factors, int count) {
+        if (n == 1)
+            return count;
+        if (isPrime(n)) {
+            factors[count++] = n;
+            return count;
+        }
+        long d = n;
+        for (long seed = 1; d == n; seed++)
+            d = brent(n, seed);
+        count = split(d, factors, count);
+        return split(n / d, factors, count);
+    }
+
+    private static void split(BigInteger n, List<BigInteger> factors) {
+        if (n.equals(BigInteger.ONE))
+            return;
+        if (n.bitLength() < Long.SIZE) {
+            long[] longFactors = new long[Long.SIZE];
+            int count = split(n.longValue(), longFactors, 0);
+            for (int i = 0; i < count; i++)
+                factors.add(BigInteger.valueOf(longFactors[i]));
+            return;
+        }
+        if (n.isProbablePrime(CERTAINTY)) {
+            factors.add(n);
+            return;
+        }
+        BigInteger d = n;
+        for (long seed = 1; d.equals(n); seed++)
+            d = brent(n, seed);
+        split(d, factors);
+        split(n.divide(d), factors);
+    }
+
+    /**
+     * Brent's variant of Pollard's rho on a {@code long}, in Montgomery form. Returns a non-trivial divisor of the odd composite
+     * {@code n}, or {@code n} itself if this seed failed and another should be tried.
+     */
+    static long brent(long n, long seed) {
+        Montgomery m = new Montgomery(n);
+        long c = m.toMontgomery(seed % (n - 1) + 1);
+        long y = m.toMontgomery(seed);
+        long x = y;
+        long ys = y;
+        long q = m.one;
+        long g = 1;
+        for (long r = 1; g == 1; r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++)
+                y = m.add(m.multiply(y, y), c);
+            for (long k = 0; k < r && g == 1; k += BRENT_BATCH) {
+                ys = y;
+                long limit = Math.min(BRENT_BATCH, r - k);
+                for (long i = 0; i < limit; i++) {
+                    y = m.add(m.multiply(y, y), c);
+                    q = m.multiply(q, x > y ? x - y : y - x);
+                }
+                g = gcd(q, n);
+            }
+        }
+        if (g == n) {
+            do {
+                ys = m.add(m.multiply(ys, ys), c);
+                g = gcd(x > ys ? x - ys : ys - x, n);
+            } while (g == 1);
+        }
+        return g;
+    }
+
+    static BigInteger brent(BigInteger n, long seed) {
+        return brent(n, seed, null);
+    }
+
+    /**
+     * Brent's variant of Pollard's rho on a {@link BigInteger}. Returns a non-trivial divisor of the composite {@code n}, or {@code n}
+     * itself if this seed failed and another should be tried. If {@code cancelled} is not null it is polled once per batch of
+     * iterations, and null is returned as soon as it is set.
+     */
+    static BigInteger brent(BigInteger n, long seed, AtomicBoolean cancelled) {
+        BigInteger c = BigInteger.valueOf(seed).mod(n);
+        BigInteger y = BigInteger.valueOf(seed + 1).mod(n);
+        BigInteger x = y;
+        BigInteger ys = y;
+        BigInteger q = BigInteger.ONE;
+        BigInteger g = BigInteger.ONE;
+        for (long r = 1; g.equals(BigInteger.ONE); r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++) {
+                if ((i % BRENT_BATCH) == 0 && cancelled != null && cancelled.get())
+                    return null;
+                y = y.multiply(y).add(c).mod(n);
+            }
+            for (long k = 0; k < r && g.equals(BigInteger.ONE); k += BRENT_BATCH) {
+                if (cancelled != null && cancelled.get())
+                    return null;
+                ys = y;
+                long limit = Math.min(BRENT_BATCH, r - k);
+                for (long i = 0; i < limit; i++) {
+                    y = y.multiply(y).add(c).mod(n);
+                    q = q.multiply(x.subtract(y).abs()).mod(n);
+                }
+                g = q.gcd(n);
+            }
+        }
+        if (g.equals(n)) {
+            do {
+                ys = ys.multiply(ys).add(c).mod(n);
+                g = x.subtract(ys).abs().gcd(n);
+            } while (g.equals(BigInteger.ONE));
+        }
+        return g;
+    }
+
+    private static long gcd(long a, long b) {
+        if (a == 0)
+            return b;
+        if (b == 0)
+            return a;
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>= Long.numberOfTrailingZeros(a);
+        while (b != 0) {
+            b >>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+
+    private static BigInteger[] toBigIntegers(long[] factors) {
+        BigInteger[] result = new BigInteger[factors.length];
+        for (int i = 0; i < factors.length; i++)
+            result[i] = BigInteger.valueOf(factors[i]);
+        return result;
+    }
+
+    private static int[] sieve(int limit) {
+        boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j < limit; j += i)
+                    composite[(int) j] = true;
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, k = 0; i < limit; i++) {
+            if (!composite[i])
+                primes[k++] = i;
+        }
+        return primes;
+    }
+
+    private static BigInteger[] largeTrialPrimes() {
+        List<BigInteger> primes = new ArrayList<BigInteger>();
+        for (int p : SMALL_PRIMES) {
+            if (p >= LARGE_TRIAL_LIMIT)
+                break;
+            primes.add(BigInteger.valueOf(p));
+        }
+        return primes.toArray(new BigInteger[primes.size()]);
+    }
+
+    /**
+     * Montgomery arithmetic modulo an odd {@code n < 2^63}, with R = 2<sup>64</sup>. Values in Montgomery form are kept in [0, n).
+     */
+    private static final class Montgomery {
+        final long n;
+        final long inverse;
+        final long one;
+        final long rSquared;
+
+        Montgomery(long n) {
+            this.n = n;
+            // Newton's iteration doubles the number of correct low bits each step, starting from 3 (n * n == 1 mod 8)
+            long inv = n;
+            for (int i = 0; i < 5; i++)
+                inv *= 2 - n * inv;
+            this.inverse = inv;
+            this.one = Long.remainderUnsigned(-n, n);
+            long r = one;
+            for (int i = 0; i < Long.SIZE; i++) {
+                r <<= 1;
+                if (r < 0 || r >= n)
+                    r -= n;
+            }
+            this.rSquared = r;
+        }
+
+        long toMontgomery(long a) {
+            return multiply(a % n, rSquared);
+        }
+
+        long multiply(long a, long b) {
+            long lo = a * b;
+            long hi = multiplyHigh(a, b);
+            long m = lo * inverse;
+            // m may be negative as a signed long; correct the signed high word to the unsigned one
+            long mn = multiplyHigh(m, n) + ((m >> 63) & n);
+            long t = hi - mn;
+            return t < 0 ? t + n : t;
+        }
+
+        long add(long a, long b) {
+            long s = a + b;
+            return s < 0 || s >= n ? s - n : s;
+        }
+
+        long pow(long base, long exponent) {
+            long result = one;
+            while (exponent > 0) {
+                if ((exponent & 1) != 0)
+                    result = multiply(result, base);
+                base = multiply(base, base);
+                exponent >>= 1;
+            }
+            return result;
+        }
+
+        private static long multiplyHigh(long x, long y) {
+            long x1 = x >> 32;
+            long x2 = x & 0xFFFFFFFFL;
+            long y1 = y >> 32;
+            long y2 = y & 0xFFFFFFFFL;
+            long z2 = x2 * y2;
+            long t = x1 * y2 + (z2 >>> 32);
+            long z1 = t & 0xFFFFFFFFL;
+            long z0 = t >> 32;
+            z1 += x2 * y1;
+            return x1 * y1 + z0 + (z1 >> 32);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * PrimeFactorizerBenchmark.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch2;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.jcip.ch5.TestHarness;
+
+/**
+ * {@link PrimeFactorizerBenchmark} measures the throughput of {@link PrimeFactorizer} for each of its input size classes, using
+ * {@link TestHarness} to run the same workload on all available processors at once. The inputs of each class are semiprimes with
+ * two factors of about the same size, which is the worst case for both trial division and Pollard's rho.
+ * <p>
+ * Run it with {@code java net.jcip.ch2.PrimeFactorizerBenchmark [seconds per class]}. Each class is first run once as warm-up so
+ * that the JIT has compiled the paths being measured.
+ */
+public class PrimeFactorizerBenchmark {
+    private static final int[] BIT_LENGTHS = {20, 31, 40, 50, 62, 72, 84, 100};
+    private static final int INPUTS_PER_CLASS = 256;
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 2;
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        Random random = new Random(42);
+        System.out.printf("%-6s %-10s %15s %15s%n", "bits", "path", "ops/s", "us/op");
+        for (int bits : BIT_LENGTHS) {
+            BigInteger[] inputs = semiprimes(bits, random);
+            run(inputs, nThreads, TimeUnit.SECONDS.toNanos(1));
+            long ops = run(inputs, nThreads, TimeUnit.SECONDS.toNanos(seconds));
+            double opsPerSecond = ops / (double) seconds;
+            System.out.printf("%-6d %-10s %15.0f %15.2f%n", bits, path(bits), opsPerSecond, nThreads * 1e6 / opsPerSecond);
+        }
+    }
+
+    private static long run(final BigInteger[] inputs, int nThreads, final long nanos) throws InterruptedException {
+        final AtomicInteger ops = new AtomicInteger();
+        new TestHarness().timeTasks(nThreads, new Runnable() {
+            public void run() {
+                long deadline = System.nanoTime() + nanos;
+                int done = 0;
+                for (int i = 0; System.nanoTime() < deadline; i++, done++)
+                    PrimeFactorizer.factor(inputs[i % inputs.length]);
+                ops.addAndGet(done);
+            }
+        });
+        return ops.get();
+    }
+
+    private static BigInteger[] semiprimes(int bits, Random random) {
+        BigInteger[] result = new BigInteger[INPUTS_PER_CLASS];
+        for (int i = 0; i < result.length; i++) {
+            BigInteger p = BigInteger.probablePrime(bits / 2, random);
+            BigInteger q = BigInteger.probablePrime(bits - bits / 2, random);
+            result[i] = p.multiply(q);
+        }
+        return result;
+    }
+
+    private static String path(int bits) {
+        if (bits <= 32)
+            return "trial";
+        return bits < Long.SIZE ? "long rho" : "BigInteger";
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * AsyncCachedFactorizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch3;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import net.jcip.annotations.ThreadSafe;
+import net.jcip.ch2.FactorizerMetrics;
+import net.jcip.ch2.FactorizerServlet;
+
+/**
+ * {@link BoundedCacheFactorizer} ties up a container thread for as long as a factorization takes, so a handful of slow requests
+ * can exhaust the container's pool while cache hits, which need only microseconds, queue up behind them.
+ * <p>
+ * {@link AsyncCachedFactorizer} answers cache hits inline, but on a miss it puts the request into asynchronous mode with {@link
+ * ServletRequest#startAsync()} and hands the factorization to its own bounded compute pool, returning the container thread
+ * immediately. The pool has {@code computeThreads} workers and a queue of {@code computeQueueCapacity} tasks; when the queue is
+ * full the request is rejected straight away with 503 rather than queued without limit, which pushes the backpressure back to the
+ * clients. A request whose result is not ready within {@code asyncTimeoutMillis} also gets a 503, and one whose factorization
+ * throws gets a 500, after the failure is logged.
+ * <p>
+ * The compute task and the container's timeout and error callbacks race to finish the response. An {@link AtomicBoolean} per
+ * request decides the winner, so exactly one of them writes the response and calls {@link AsyncContext#complete()}. A timed-out
+ * task that has not started yet is cancelled; one that is already running finishes and still populates the cache.
+ * <p>
+ * The servlet must be deployed with {@code <async-supported>true</async-supported>}; if it is not, misses are computed on the
+ * container thread as before.
+ */
+@ThreadSafe
+public class AsyncCachedFactorizer extends FactorizerServlet {
+    public static final String COMPUTE_THREADS_PARAM = "computeThreads";
+    public static final String COMPUTE_QUEUE_CAPACITY_PARAM = "computeQueueCapacity";
+    public static final String ASYNC_TIMEOUT_MILLIS_PARAM = "asyncTimeoutMillis";
+    public static final int DEFAULT_COMPUTE_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_ASYNC_TIMEOUT_MILLIS = 30000;
+    private static final Logger LOG = Logger.getLogger(AsyncCachedFactorizer.class.getName());
+
+    private volatile BoundedFactorCache cache = new BoundedFactorCache(BoundedCacheFactorizer.DEFAULT_CACHE_SIZE);
+    private volatile ThreadPoolExecutor computeExecutor;
+    private volatile long asyncTimeoutMillis = DEFAULT_ASYNC_TIMEOUT_MILLIS;
+    private final FactorizerMetrics metrics = new FactorizerMetrics();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Override
+    public void init(ServletConfig aServletConfig) throws ServletException {
+        super.init(aServletConfig);
+        int cacheSize = getIntInitParameter(BoundedCacheFactorizer.CACHE_SIZE_PARAM, BoundedCacheFactorizer.DEFAULT_CACHE_SIZE);
+        int threads = getIntInitParameter(COMPUTE_THREADS_PARAM, Runtime.getRuntime().availableProcessors());
+        int queueCapacity = getIntInitParameter(COMPUTE_QUEUE_CAPACITY_PARAM, DEFAULT_COMPUTE_QUEUE_CAPACITY);
+        int timeout = getIntInitParameter(ASYNC_TIMEOUT_MILLIS_PARAM, DEFAULT_ASYNC_TIMEOUT_MILLIS);
+        if (cacheSize <= 0 || threads <= 0 || queueCapacity <= 0 || timeout <= 0)
+            throw new ServletException("cache size, compute threads, compute queue capacity and async timeout must be positive");
+        cache = new BoundedFactorCache(cacheSize);
+        asyncTimeoutMillis = timeout;
+        computeExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueCapacity), new ComputeThreadFactory(),
+                        new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void destroy() {
+        ThreadPoolExecutor executor = computeExecutor;
+        if (executor != null)
+            executor.shutdownNow();
+        super.destroy();
+    }
+
+    public FactorizerMetrics getMetrics() { return metrics; }
+
+    public long getRejectedCount() { return rejected.sum(); }
+
+    public long getTimedOutCount() { return timedOut.sum(); }
+
+    public long getFailedCount() { return failed.sum(); }
+
+    public void service(ServletRequest req, ServletResponse resp) throws ServletException, IOException {
+        final long start = System.nanoTime();
+        final BigInteger i = extractFromRequest(req);
+        final BoundedFactorCache cache = this.cache;
+        BigInteger[] factors = cache.get(i);
+        if (factors != null) {
+            encodeIntoResponse(resp, factors);
+            metrics.recordCacheHit(System.nanoTime() - start);
+            return;
+        }
+        ThreadPoolExecutor executor = computeExecutor;
+        if (executor == null || !req.isAsyncSupported()) {
+            factors = factor(i);
+            cache.put(i, factors);
+            encodeIntoResponse(resp, factors);
+            metrics.recordCacheMiss(System.nanoTime() - start);
+            return;
+        }
+
+        final AsyncContext ctx = req.startAsync(req, resp);
+        ctx.setTimeout(asyncTimeoutMillis);
+        final AtomicBoolean responded = new AtomicBoolean();
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            public void run() {
+                BigInteger[] factors = null;
+                try {
+                    factors = factor(i);
+                    cache.put(i, factors);
+                } catch (RuntimeException | Error e) {
+                    LOG.log(Level.SEVERE, "cannot factor " + i, e);
+                    throw e;
+                } finally {
+                    if (responded.compareAndSet(false, true))
+                        respond(ctx, factors, start);
+                }
+            }
+        }, null);
+        ctx.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (responded.compareAndSet(false, true)) {
+                    timedOut.increment();
+                    task.cancel(false);
+                    sendUnavailable(ctx.getResponse());
+                    ctx.complete();
+                }
+            }
+
+            public void onError(AsyncEvent event) {
+                if (responded.compareAndSet(false, true)) {
+                    task.cancel(false);
+                    ctx.complete();
+                }
+            }
+
+            public void onComplete(AsyncEvent event) {
+            }
+
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (responded.compareAndSet(false, true)) {
+                rejected.increment();
+                sendUnavailable(resp);
+                ctx.complete();
+            }
+        }
+    }
+
+    /**
+     * Writes the factors, or a 500 if the factorization failed, and completes the request whatever happens, so that a failed task
+     * does not leave the client waiting for the async timeout.
+     */
+    private void respond(AsyncContext ctx, BigInteger[] factors, long start) {
+        try {
+            if (factors == null) {
+                failed.increment();
+                ServletResponse resp = ctx.getResponse();
+                if (resp instanceof HttpServletResponse)
+                    ((HttpServletResponse) resp).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } else {
+                encodeIntoResponse(ctx.getResponse(), factors);
+                metrics.recordCacheMiss(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            // the client has gone away; there is nobody left to tell
+        } finally {
+            ctx.complete();
+        }
+    }
+
+    private static void sendUnavailable(ServletResponse resp) throws IOException {
+        if (resp instanceof HttpServletResponse) {
+            HttpServletResponse httpResp = (HttpServletResponse) resp;
+            httpResp.setHeader("Retry-After", "1");
+            httpResp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    static class ComputeThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "factorizer-compute-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * BatchFactorizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import net.jcip.annotations.ThreadSafe;
+import net.jcip.ch2.FactorizerMetrics;
+import net.jcip.ch2.FactorizerServlet;
+
+import static net.jcip.ch5.cache.FinalMemoizer.launderThrowable;
+
+/**
+ * {@link BatchFactorizer} factors many numbers per request. The request body is a stream of numbers and the response a stream of
+ * factor lists in the same order, both in the {@link FactorCodec} binary format, written straight to the servlet streams.
+ * <p>
+ * The whole batch is read first, so that every number can be looked up in the {@link BoundedFactorCache} before any work starts.
+ * Only the misses are submitted to the compute pool, where they are factored in parallel. Results are then written in request
+ * order: cached and already finished results go into the output buffer back to back, and the buffer is flushed just before the
+ * writer has to wait for a result that is still being computed, so the client receives each prefix of the response as soon as it
+ * is complete.
+ * <p>
+ * The compute pool has {@code computeThreads} workers and a bounded queue. When the queue is full, the request thread factors the
+ * number itself ({@link ThreadPoolExecutor.CallerRunsPolicy}), which slows down the submitter instead of queuing without limit.
+ * A batch may contain at most {@code maxBatchSize} numbers, of at most {@code maxNumberBits} bits each; a number that claims to
+ * be longer is rejected before its bytes are read.
+ */
+@ThreadSafe
+public class BatchFactorizer extends FactorizerServlet {
+    public static final String MAX_BATCH_SIZE_PARAM = "maxBatchSize";
+    public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+    public static final String MAX_NUMBER_BITS_PARAM = "maxNumberBits";
+    public static final int DEFAULT_MAX_NUMBER_BITS = 1024;
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private volatile BoundedFactorCache cache = new BoundedFactorCache(BoundedCacheFactorizer.DEFAULT_CACHE_SIZE);
+    private volatile ThreadPoolExecutor computeExecutor;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile int maxNumberBits = DEFAULT_MAX_NUMBER_BITS;
+    private final FactorizerMetrics metrics = new FactorizerMetrics();
+
+    @Override
+    public void init(ServletConfig aServletConfig) throws ServletException {
+        super.init(aServletConfig);
+        int cacheSize = getIntInitParameter(BoundedCacheFactorizer.CACHE_SIZE_PARAM, BoundedCacheFactorizer.DEFAULT_CACHE_SIZE);
+        int threads = getIntInitParameter(AsyncCachedFactorizer.COMPUTE_THREADS_PARAM, Runtime.getRuntime().availableProcessors());
+        int queueCapacity = getIntInitParameter(AsyncCachedFactorizer.COMPUTE_QUEUE_CAPACITY_PARAM,
+                        AsyncCachedFactorizer.DEFAULT_COMPUTE_QUEUE_CAPACITY);
+        int batchSize = getIntInitParameter(MAX_BATCH_SIZE_PARAM, DEFAULT_MAX_BATCH_SIZE);
+        int numberBits = getIntInitParameter(MAX_NUMBER_BITS_PARAM, DEFAULT_MAX_NUMBER_BITS);
+        if (cacheSize <= 0 || threads <= 0 || queueCapacity <= 0 || batchSize <= 0 || numberBits <= 0)
+            throw new ServletException("cache size, compute threads, compute queue capacity, batch size and number bits must be"
+                            + " positive");
+        cache = new BoundedFactorCache(cacheSize);
+        maxBatchSize = batchSize;
+        maxNumberBits = numberBits;
+        computeExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueCapacity), new AsyncCachedFactorizer.ComputeThreadFactory(),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public void destroy() {
+        ThreadPoolExecutor executor = computeExecutor;
+        if (executor != null)
+            executor.shutdownNow();
+        super.destroy();
+    }
+
+    public FactorizerMetrics getMetrics() { return metrics; }
+
+    public void service(ServletRequest req, ServletResponse resp) throws ServletException, IOException {
+        long start = System.nanoTime();
+        List<BigInteger> numbers = readBatch(req);
+        BoundedFactorCache cache = this.cache;
+        ThreadPoolExecutor executor = computeExecutor;
+
+        BigInteger[][] cached = new BigInteger[numbers.size()][];
+        List<Future<BigInteger[]>> pending = new ArrayList<Future<BigInteger[]>>(numbers.size());
+        for (int i = 0; i < numbers.size(); i++) {
+            cached[i] = cache.get(numbers.get(i));
+            pending.add(null);
+        }
+        try {
+            for (int i = 0; i < numbers.size(); i++) {
+                if (cached[i] == null)
+                    pending.set(i, submit(executor, cache, numbers.get(i)));
+            }
+
+            resp.setContentType(CONTENT_TYPE);
+            OutputStream out = new BufferedOutputStream(resp.getOutputStream());
+            for (int i = 0; i < numbers.size(); i++) {
+                BigInteger[] factors = cached[i];
+                if (factors == null) {
+                    Future<BigInteger[]> f = pending.get(i);
+                    if (!f.isDone())
+                        out.flush();
+                    factors = f.get();
+                    metrics.recordCacheMiss(System.nanoTime() - start);
+                } else {
+                    metrics.recordCacheHit(System.nanoTime() - start);
+                }
+                FactorCodec.writeFactors(out, factors);
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("interrupted while factoring batch", e);
+        } catch (ExecutionException e) {
+            throw launderThrowable(e.getCause());
+        } finally {
+            for (Future<BigInteger[]> f : pending) {
+                if (f != null)
+                    f.cancel(false);
+            }
+        }
+    }
+
+    private Future<BigInteger[]> submit(ThreadPoolExecutor executor, final BoundedFactorCache cache, final BigInteger i) {
+        Callable<BigInteger[]> task = new Callable<BigInteger[]>() {
+            public BigInteger[] call() {
+                BigInteger[] factors = factor(i);
+                cache.put(i, factors);
+                return factors;
+            }
+        };
+        if (executor == null) {
+            FutureTask<BigInteger[]> ft = new FutureTask<BigInteger[]>(task);
+            ft.run();
+            return ft;
+        }
+        return executor.submit(task);
+    }
+
+    private List<BigInteger> readBatch(ServletRequest req) throws IOException, ServletException {
+        InputStream in = new BufferedInputStream(req.getInputStream());
+        List<BigInteger> numbers = new ArrayList<BigInteger>();
+        int max = maxBatchSize;
+        int maxBits = maxNumberBits;
+        try {
+            for (BigInteger n = FactorCodec.readNumberOrNull(in, maxBits); n != null;
+                            n = FactorCodec.readNumberOrNull(in, maxBits)) {
+                if (numbers.size() == max)
+                    throw new ServletException("batch exceeds " + MAX_BATCH_SIZE_PARAM + " of " + max);
+                numbers.add(n);
+            }
+        } catch (IOException e) {
+            throw new ServletException("invalid batch (" + MAX_NUMBER_BITS_PARAM + " is " + maxBits + ")", e);
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * BoundedCacheFactorizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch3;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import net.jcip.annotations.ThreadSafe;
+import net.jcip.ch2.FactorizerMetrics;
+import net.jcip.ch2.FactorizerServlet;
+
+/**
+ * {@link VolatileCachedFactorizer} only remembers the most recent number, so with many clients asking for different numbers its
+ * cache almost never hits. {@link BoundedCacheFactorizer} keeps the same structure—look up, and on a miss factor and publish—but
+ * backs it with a {@link BoundedFactorCache} holding up to {@code cacheSize} numbers (an init parameter, {@value
+ * #DEFAULT_CACHE_SIZE} by default).
+ * <p>
+ * As with {@link VolatileCachedFactorizer}, the read path takes no locks: the cache is a volatile reference to a thread-safe object
+ * that is only replaced in {@link #init(ServletConfig)}, which the container calls before any request is serviced. Cached factor arrays
+ * are shared with {@link #encodeIntoResponse(ServletResponse, BigInteger[])} rather than copied, since nothing on the request path
+ * modifies them.
+ * <p>
+ * If the {@code persistentCacheDir} init parameter names a directory, a {@link PersistentFactorStore} there acts as a second tier:
+ * in-memory misses are looked up in it before factoring, and newly computed factors are queued to it, so the cache is warm again
+ * after a restart once the store has been loaded in the background.
+ */
+@ThreadSafe
+public class BoundedCacheFactorizer extends FactorizerServlet {
+    public static final String CACHE_SIZE_PARAM = "cacheSize";
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final String PERSISTENT_CACHE_DIR_PARAM = "persistentCacheDir";
+    public static final String FLUSH_INTERVAL_MILLIS_PARAM = "persistentCacheFlushIntervalMillis";
+    public static final int DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private volatile BoundedFactorCache cache = new BoundedFactorCache(DEFAULT_CACHE_SIZE);
+    private volatile PersistentFactorStore store;
+    private final FactorizerMetrics metrics = new FactorizerMetrics();
+
+    @Override
+    public void init(ServletConfig aServletConfig) throws ServletException {
+        super.init(aServletConfig);
+        int cacheSize = getIntInitParameter(CACHE_SIZE_PARAM, DEFAULT_CACHE_SIZE);
+        if (cacheSize <= 0)
+            throw new ServletException(CACHE_SIZE_PARAM + " must be positive: " + cacheSize);
+        cache = new BoundedFactorCache(cacheSize);
+        String directory = aServletConfig == null ? null : aServletConfig.getInitParameter(PERSISTENT_CACHE_DIR_PARAM);
+        if (directory != null && !directory.trim().isEmpty()) {
+            int flushInterval = getIntInitParameter(FLUSH_INTERVAL_MILLIS_PARAM, DEFAULT_FLUSH_INTERVAL_MILLIS);
+            if (flushInterval <= 0)
+                throw new ServletException(FLUSH_INTERVAL_MILLIS_PARAM + " must be positive: " + flushInterval);
+            try {
+                store = new PersistentFactorStore(new File(directory.trim()), flushInterval);
+            } catch (IOException e) {
+                throw new ServletException("cannot open persistent factor cache in " + directory, e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        PersistentFactorStore store = this.store;
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException ignored) {
+                // nothing more to do; anything not yet flushed will simply be recomputed after the restart
+            }
+        }
+        super.destroy();
+    }
+
+    public long getHits() { return metrics.getHits(); }
+
+    public double getCacheHitRatio() {
+        return metrics.getCacheHitRatio();
+    }
+
+    public FactorizerMetrics getMetrics() { return metrics; }
+
+    public void service(ServletRequest req, ServletResponse resp) {
+        long start = System.nanoTime();
+        BigInteger i = extractFromRequest(req);
+        BoundedFactorCache cache = this.cache;
+        PersistentFactorStore store = this.store;
+        BigInteger[] factors = cache.get(i);
+        if (factors == null && store != null) {
+            factors = store.get(i);
+            if (factors != null)
+                cache.put(i, factors);
+        }
+        if (factors == null) {
+            factors = factor(i);
+            cache.put(i, factors);
+            if (store != null)
+                store.put(i, factors);
+            encodeIntoResponse(resp, factors);
+            metrics.recordCacheMiss(System.nanoTime() - start);
+        } else {
+            encodeIntoResponse(resp, factors);
+            metrics.recordCacheHit(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * BoundedFactorCache.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch3;
+
+import java.math.BigInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link BoundedFactorCache} generalizes {@link OneValueCache} from one remembered number to a bounded set of them. Each mapping is
+ * still held in an immutable {@link Entry}, so a thread that fetches an entry sees a number and its factors that belong together,
+ * exactly as with {@link OneValueCache}; the difference is that the entries live in a {@link ConcurrentHashMap} instead of a single
+ * volatile field.
+ * <p>
+ * Reads never block: {@link #get(BigInteger)} is a map lookup plus, at most, one volatile write to mark the entry as recently used.
+ * The factors array is shared rather than copied on every hit, so callers must treat the returned array as read-only.
+ * <p>
+ * Eviction uses the CLOCK (second chance) approximation of LRU. Entries are queued in insertion order; when the cache grows past its
+ * bound, the writer that pushed it over takes the eviction lock (with tryLock, so other writers never wait for it), and walks the
+ * queue. An entry that was referenced since it was last examined gets its flag cleared and goes to the back of the queue; one that
+ * was not is removed.
+ */
+@ThreadSafe
+public class BoundedFactorCache {
+    private final ConcurrentMap<BigInteger, Entry> entries;
+    private final Queue<Entry> clock = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maximumSize;
+
+    public BoundedFactorCache(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        this.maximumSize = maximumSize;
+        this.entries = new ConcurrentHashMap<BigInteger, Entry>(Math.min(maximumSize, 1 << 16));
+    }
+
+    /**
+     * Returns the cached factors of {@code i}, or null if it is not cached. The returned array is shared and must not be modified.
+     */
+    public BigInteger[] get(BigInteger i) {
+        Entry e = entries.get(i);
+        if (e == null)
+            return null;
+        if (!e.referenced)
+            e.referenced = true;
+        return e.factors;
+    }
+
+    /**
+     * Caches the factors of {@code i}. The array is published as is and must not be modified by the caller afterwards.
+     */
+    public void put(BigInteger i, BigInteger[] factors) {
+        Entry e = new Entry(i, factors);
+        if (entries.putIfAbsent(i, e) != null)
+            return;
+        clock.offer(e);
+        if (size.incrementAndGet() > maximumSize)
+            evict();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    private void evict() {
+        // re-check after unlocking: insertions that failed tryLock while the lock was being released were not evicted for
+        while (size.get() > maximumSize && evictionLock.tryLock()) {
+            try {
+                while (size.get() > maximumSize) {
+                    Entry e = clock.poll();
+                    if (e == null)
+                        return;
+                    if (e.referenced) {
+                        e.referenced = false;
+                        clock.offer(e);
+                    } else if (entries.remove(e.number, e)) {
+                        size.decrementAndGet();
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * An immutable number-to-factors mapping, like {@link OneValueCache}. The only mutable part is the CLOCK reference bit, which
+     * is advisory: losing an update to it only makes eviction slightly less accurate.
+     */
+    private static final class Entry {
+        private final BigInteger number;
+        private final BigInteger[] factors;
+        private volatile boolean referenced;
+
+        Entry(BigInteger number, BigInteger[] factors) {
+            this.number = number;
+            this.factors = factors;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * FactorCodec.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch3;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * {@link FactorCodec} is the compact binary encoding used by {@link BatchFactorizer}. Integers are written as a varint header
+ * (seven bits per byte, least significant group first, high bit set on all but the last byte):
+ * <ul>
+ * <li>an even header {@code h} is a number in the range of a 62-bit signed integer, stored zigzag-encoded as {@code h >>> 1};</li>
+ * <li>an odd header {@code h} is followed by {@code h >>> 1} bytes holding the big-endian two's complement form of a larger
+ * number, as produced by {@link BigInteger#toByteArray()}.</li>
+ * </ul>
+ * Almost all factors are small, so they take one to nine bytes and are written without allocating a byte array. A list of factors
+ * is its length as a varint, followed by the factors.
+ * <p>
+ * The length of a large number comes from the sender, so it is not trusted for allocation: the bytes are read into a buffer that
+ * grows with the data actually received, and readers of untrusted input pass the largest number they accept, in bits, which
+ * rejects a longer length before anything is read.
+ */
+public final class FactorCodec {
+    private static final int SMALL_BITS = 62;
+    private static final int CHUNK_SIZE = 8192;
+
+    private FactorCodec() {
+    }
+
+    public static void writeFactors(OutputStream out, BigInteger[] factors) throws IOException {
+        writeVarLong(out, factors.length);
+        for (BigInteger f : factors)
+            writeNumber(out, f);
+    }
+
+    public static BigInteger[] readFactors(InputStream in) throws IOException {
+        long count = readVarLong(in);
+        if (count < 0 || count > Integer.MAX_VALUE)
+            throw new IOException("invalid factor count: " + count);
+        BigInteger[] factors = new BigInteger[(int) count];
+        for (int i = 0; i < factors.length; i++)
+            factors[i] = readNumber(in);
+        return factors;
+    }
+
+    public static void writeNumber(OutputStream out, BigInteger n) throws IOException {
+        if (n.bitLength() < SMALL_BITS) {
+            long v = n.longValue();
+            writeVarLong(out, ((v << 1) ^ (v >> 63)) << 1);
+        } else {
+            byte[] bytes = n.toByteArray();
+            writeVarLong(out, ((long) bytes.length << 1) | 1);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads one number of at most {@code maxBits} bits, or returns null if the stream is at its end before the first byte.
+     *
+     * @throws IOException if the number is malformed or longer than {@code maxBits}
+     */
+    public static BigInteger readNumberOrNull(InputStream in, int maxBits) throws IOException {
+        int first = in.read();
+        if (first < 0)
+            return null;
+        return decodeNumber(in, readVarLong(in, first), maxBits);
+    }
+
+    public static BigInteger readNumber(InputStream in) throws IOException {
+        return decodeNumber(in, readVarLong(in), Integer.MAX_VALUE);
+    }
+
+    private static BigInteger decodeNumber(InputStream in, long header, int maxBits) throws IOException {
+        BigInteger n;
+        if ((header & 1) == 0) {
+            long zigzag = header >>> 1;
+            n = BigInteger.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+        } else {
+            long length = header >>> 1;
+            if (length == 0 || length > Integer.MAX_VALUE)
+                throw new IOException("invalid number length: " + length);
+            if (length > maxBits / 8 + 1)
+                throw new IOException("number of " + length + " bytes exceeds " + maxBits + " bits");
+            n = new BigInteger(readFully(in, (int) length));
+        }
+        if (n.bitLength() > maxBits)
+            throw new IOException("number of " + n.bitLength() + " bits exceeds " + maxBits + " bits");
+        return n;
+    }
+
+    /**
+     * Reads {@code length} bytes into a buffer of at most {@value #CHUNK_SIZE} bytes at first, doubled only once it is full, so
+     * the buffer is never larger than one chunk or twice what has actually arrived.
+     */
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, CHUNK_SIZE)];
+        int read = 0;
+        while (read < length) {
+            if (read == bytes.length)
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, (long) read + Math.max(read, CHUNK_SIZE)));
+            int r = in.read(bytes, read, bytes.length - read);
+            if (r < 0)
+                throw new EOFException("truncated number");
+            read += r;
+        }
+        return bytes;
+    }
+
+    public static void writeVarLong(OutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    public static long readVarLong(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0)
+            throw new EOFException();
+        return readVarLong(in, first);
+    }
+
+    private static long readVarLong(InputStream in, int first) throws IOException {
+        long result = first & 0x7F;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift >= Long.SIZE)
+                throw new IOException("varint too long");
+            b = in.read();
+            if (b < 0)
+                throw new EOFException("truncated varint");
+            result |= (long) (b & 0x7F) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * PersistentFactorStore.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link PersistentFactorStore} is an on-disk tier for the factor caches, so that a restarted servlet does not start cold. It is
+ * an append-only file of records, each holding a number and its factors in the {@link FactorCodec} format:
+ * <pre>
+ *   int length | int CRC-32 of payload | payload (number, factors)
+ * </pre>
+ * The file is memory-mapped. The heap only holds an index from each number to the offset of its record; {@link
+ * #get(BigInteger)} decodes the factors straight out of the {@link MappedByteBuffer}, so the stored factors are never loaded into
+ * the heap as a whole.
+ * <p>
+ * All file access except reads happens on a single writer thread; the writer state (the append position and the dirty flag) is
+ * also guarded by the store's lock, so that {@link #close()} can drain what is left once the writer has stopped. The first thing
+ * the writer does is scan the existing file and rebuild the index; until that is done lookups simply miss. {@link
+ * #put(BigInteger, BigInteger[])} only enqueues the record, and the writer appends it and publishes its offset in the index; the
+ * mapping is forced to disk every {@code flushIntervalMillis} when there is something to flush.
+ * <p>
+ * A record cut short by a crash has a length or checksum that does not match its payload; the scan stops there, and the writer
+ * continues appending from that point. The torn record and everything after it is zeroed first, so no stale bytes remain behind
+ * the new end. The unused tail of the mapping is zero-filled, and a zero length marks the end of the data.
+ * <p>
+ * Readers see a record only after its offset is published through the {@link ConcurrentHashMap} index, which happens after the
+ * writer has filled in the record and after any remapping, so a reader that finds an offset always finds the bytes behind it.
+ */
+@ThreadSafe
+public class PersistentFactorStore implements Closeable {
+    public static final String FILE_NAME = "factors.dat";
+    private static final int HEADER_BYTES = 8;
+    private static final int INITIAL_CAPACITY = 16 << 20;
+    private static final int MAX_PENDING = 65536;
+    private static final Logger LOG = Logger.getLogger(PersistentFactorStore.class.getName());
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ConcurrentMap<BigInteger, Integer> index = new ConcurrentHashMap<BigInteger, Integer>();
+    private final BlockingQueue<Record> pending = new LinkedBlockingQueue<Record>(MAX_PENDING);
+    private final ScheduledExecutorService writer;
+    private volatile MappedByteBuffer mapped;
+    private volatile boolean loaded;
+    @GuardedBy("this") private int position;
+    @GuardedBy("this") private boolean dirty;
+
+    public PersistentFactorStore(File directory, long flushIntervalMillis) throws IOException {
+        if (flushIntervalMillis <= 0)
+            throw new IllegalArgumentException("flushIntervalMillis must be positive: " + flushIntervalMillis);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create directory " + directory);
+        this.file = new RandomAccessFile(new File(directory, FILE_NAME), "rw");
+        this.channel = file.getChannel();
+        long size = Math.max(channel.size(), INITIAL_CAPACITY);
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("factor store is larger than 2GB: " + size);
+        this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "factor-store-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        writer.execute(new Runnable() {
+            public void run() {
+                load();
+            }
+        });
+        writer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                // an exception escaping a periodic task cancels all its later runs
+                try {
+                    drainAndFlush();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "cannot flush factor store", e);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the stored factors of {@code n}, or null if they are not stored or the store is still loading.
+     */
+    public BigInteger[] get(BigInteger n) {
+        Integer offset = index.get(n);
+        if (offset == null)
+            return null;
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(offset + HEADER_BYTES);
+        try {
+            InputStream in = new ByteBufferInputStream(buffer);
+            FactorCodec.readNumber(in);
+            return FactorCodec.readFactors(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queues the factors of {@code n} to be appended. If the writer has fallen too far behind, the record is dropped; the store is
+     * a cache and the number can always be factored again.
+     */
+    public void put(BigInteger n, BigInteger[] factors) {
+        if (!index.containsKey(n))
+            pending.offer(new Record(n, factors));
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainAndFlush();
+        channel.close();
+        file.close();
+    }
+
+    private synchronized void load() {
+        MappedByteBuffer buffer = mapped;
+        int offset = 0;
+        CRC32 crc = new CRC32();
+        while (offset + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            int checksum = buffer.getInt(offset + 4);
+            if (length <= 0 || length > buffer.capacity() - offset - HEADER_BYTES)
+                break;
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+            try {
+                index.put(FactorCodec.readNumber(new ByteBufferInputStream(payload)), offset);
+            } catch (IOException e) {
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        if (offset + 4 <= buffer.capacity() && buffer.getInt(offset) != 0) {
+            zero(buffer, offset);
+            dirty = true;
+        }
+        position = offset;
+        loaded = true;
+    }
+
+    private static void zero(ByteBuffer buffer, int from) {
+        ByteBuffer tail = buffer.duplicate();
+        tail.position(from);
+        byte[] zeros = new byte[Math.min(65536, tail.remaining())];
+        while (tail.hasRemaining())
+            tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+    }
+
+    private synchronized void drainAndFlush() {
+        try {
+            for (Record r = pending.poll(); r != null; r = pending.poll())
+                append(r);
+            if (dirty) {
+                mapped.force();
+                dirty = false;
+            }
+        } catch (IOException e) {
+            // the store is a cache: give up on this batch and try again on the next flush
+            pending.clear();
+        }
+    }
+
+    private void append(Record r) throws IOException {
+        if (index.containsKey(r.number))
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FactorCodec.writeNumber(bytes, r.number);
+        FactorCodec.writeFactors(bytes, r.factors);
+        byte[] payload = bytes.toByteArray();
+        long end = (long) position + HEADER_BYTES + payload.length;
+        if (end > mapped.capacity() && !grow(end))
+            return;
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        MappedByteBuffer buffer = mapped;
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + HEADER_BYTES);
+        target.put(payload);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, payload.length);
+        index.put(r.number, position);
+        position = (int) end;
+        dirty = true;
+    }
+
+    private boolean grow(long required) throws IOException {
+        long capacity = mapped.capacity();
+        while (capacity < required)
+            capacity *= 2;
+        capacity = Math.min(capacity, Integer.MAX_VALUE);
+        if (capacity < required)
+            return false;
+        mapped.force();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return true;
+    }
+
+    private static final class Record {
+        final BigInteger number;
+        final BigInteger[] factors;
+
+        Record(BigInteger number, BigInteger[] factors) {
+            this.number = number;
+            this.factors = factors;
+        }
+    }
+
+    /**
+     * Reads from a private duplicate of the mapped buffer, so concurrent readers never share a position.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * CopyOnWriteImprovedList.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link CopyOnWriteImprovedList} is a variant of {@link ImprovedList} for lists that are read far more often than they are
+ * written. {@link ImprovedList} serializes readers on its intrinsic lock, so threads calling {@link #get(int)} or {@link
+ * #contains(Object)} queue behind each other although none of them changes anything. Here the elements are kept in a {@link
+ * CopyOnWriteArrayList}: a read is a plain read of the current array and takes no lock, while a write copies the array under the
+ * list's lock, so writes cost O(n) each and are still serialized.
+ * <p>
+ * {@link #putIfAbsent(Object)} is {@link CopyOnWriteArrayList#addIfAbsent(Object)}, which checks and adds under that lock and is
+ * therefore atomic. Iterators and sublists are snapshots: they see the elements as they were when they were created, never throw
+ * {@link java.util.ConcurrentModificationException}, and do not support modification, so {@link #removeIf(Predicate)} is
+ * delegated to the list rather than done through an iterator. Like {@link ImprovedList}, the list passed to the constructor is
+ * not used again after its elements have been copied.
+ */
+@ThreadSafe public class CopyOnWriteImprovedList<T> implements List<T> {
+    private final CopyOnWriteArrayList<T> list;
+
+    public CopyOnWriteImprovedList(List<T> list) {
+        this.list = new CopyOnWriteArrayList<T>(list);
+    }
+
+    public boolean putIfAbsent(T x) {
+        return list.addIfAbsent(x);
+    }
+
+    @Override
+    public int size() {
+        return list.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return list.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return list.contains(o);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return list.iterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        return list.toArray();
+    }
+
+    @Override
+    public <T1> T1[] toArray(T1[] a) {
+        return list.toArray(a);
+    }
+
+    @Override
+    public boolean add(T aT) {
+        return list.add(aT);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return list.remove(o);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        return list.containsAll(c);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        return list.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends T> c) {
+        return list.addAll(index, c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        return list.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        return list.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super T> filter) {
+        return list.removeIf(filter);
+    }
+
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        list.forEach(action);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<T> operator) {
+        list.replaceAll(operator);
+    }
+
+    @Override
+    public void sort(Comparator<? super T> c) {
+        list.sort(c);
+    }
+
+    @Override
+    public void clear() {
+        list.clear();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || list.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return list.hashCode();
+    }
+
+    @Override
+    public T get(int index) {
+        return list.get(index);
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return list.set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        list.add(index, element);
+    }
+
+    @Override
+    public T remove(int index) {
+        return list.remove(index);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return list.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return list.lastIndexOf(o);
+    }
+
+    @Override
+    public ListIterator<T> listIterator() {
+        return list.listIterator();
+    }
+
+    @Override
+    public ListIterator<T> listIterator(int index) {
+        return list.listIterator(index);
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the elements from {@code fromIndex} to {@code toIndex}. (The sublist of a {@link
+     * CopyOnWriteArrayList} is a view that fails once the list is modified.)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> subList(int fromIndex, int toIndex) {
+        List<T> snapshot = (List<T>) Arrays.asList(list.toArray());
+        return Collections.unmodifiableList(snapshot.subList(fromIndex, toIndex));
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return list.spliterator();
+    }
+}
@@ -11,8 +11,11 @@
  */
 package net.jcip.ch4;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -34,6 +37,10 @@ import net.jcip.annotations.ThreadSafe;
  * <p>
  * Since the contents of the Map are immutable, only the structure of the Map, not the contents, must be copied, as shown {@link
  * #getLocationsSnapShot()} (which returns a plain HashMap, since getLocations did not promise to return a thread-safe Map)
+ * <p>
+ * {@link #setLocations(String[], int[], int[])} applies a whole frame of updates and reports unknown vehicles in its result rather
+ * than by throwing. Every location is still a new {@link Point}, which is what immutability costs here; {@link
+ * PackedVehicleTracker} avoids it.
  */
 @ThreadSafe public class DelegatingVehicleTracker {
     private final ConcurrentMap<String, Point> locations;
@@ -53,6 +60,29 @@ import net.jcip.annotations.ThreadSafe;
             throw new IllegalArgumentException("invalid vehicle name: " + id);
     }
 
+    /**
+     * Sets the location of every vehicle in the frame and returns the IDs of the vehicles that do not exist, whose locations are
+     * skipped.
+     */
+    public List<String> setLocations(String[] ids, int[] xs, int[] ys) {
+        LocationFrame.checkLengths(ids, xs, ys);
+        List<String> unknown = new ArrayList<String>(0);
+        for (int i = 0; i < ids.length; i++) {
+            if (locations.replace(ids[i], new Point(xs[i], ys[i])) == null)
+                unknown.add(ids[i]);
+        }
+        return unknown;
+    }
+
+    /**
+     * Sets the locations of a frame encoded as described in {@link LocationFrame}; see {@link #setLocations(String[], int[],
+     * int[])}.
+     */
+    public List<String> setLocations(ByteBuffer frame) {
+        LocationFrame f = LocationFrame.decode(frame);
+        return setLocations(f.ids, f.xs, f.ys);
+    }
+
     public Map<String, Point> getLocations() {
         return unmodifiableMap;
     }
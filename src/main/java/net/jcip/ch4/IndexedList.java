@@ -0,0 +1,273 @@
+/*
+ * IndexedList.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link IndexedList} is a variant of {@link ImprovedList} whose membership test does not scan the list. {@link
+ * ImprovedList#putIfAbsent} and {@link ListHelper#putIfAbsent} both call {@code contains}, a linear search done while holding the
+ * lock, so the lock is held longer as the list grows. Next to the elements, {@link IndexedList} keeps a hash index counting how
+ * often each element occurs, which makes {@link #contains(Object)}, {@link #putIfAbsent(Object)} and a {@link #remove(Object)} of
+ * an absent element expected O(1). Removing an element that is present still has to find and close its slot in the array, as in
+ * any array list; index access and insertion order are those of the {@link ArrayList} holding the elements.
+ * <p>
+ * The elements and the index are guarded by the list's intrinsic lock, as in {@link ImprovedList}, and every mutator updates both
+ * before releasing it. Unlike {@link ImprovedList}, iterators and sublists are snapshots copied under the lock, so they can be
+ * used without holding it; they do not support modification, so {@link #removeIf(Predicate)} is done on the list under the lock
+ * rather than through an iterator.
+ */
+@ThreadSafe public class IndexedList<T> implements List<T> {
+    @GuardedBy("this") private final List<T> list;
+    @GuardedBy("this") private final Map<Object, Integer> counts;
+
+    public IndexedList() {
+        this(Collections.<T>emptyList());
+    }
+
+    public IndexedList(Collection<? extends T> c) {
+        this.list = new ArrayList<T>(c);
+        this.counts = new HashMap<Object, Integer>(Math.max(16, (int) (list.size() / .75f) + 1));
+        for (T t : list)
+            increment(t);
+    }
+
+    public synchronized boolean putIfAbsent(T x) {
+        if (counts.containsKey(x))
+            return false;
+        list.add(x);
+        increment(x);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return list.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return list.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean contains(Object o) {
+        return counts.containsKey(o);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return snapshot().iterator();
+    }
+
+    @Override
+    public synchronized Object[] toArray() {
+        return list.toArray();
+    }
+
+    @Override
+    public synchronized <T1> T1[] toArray(T1[] a) {
+        return list.toArray(a);
+    }
+
+    @Override
+    public synchronized boolean add(T aT) {
+        list.add(aT);
+        increment(aT);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        if (!counts.containsKey(o))
+            return false;
+        list.remove(o);
+        decrement(o);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean containsAll(Collection<?> c) {
+        for (Object o : c) {
+            if (!counts.containsKey(o))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean addAll(Collection<? extends T> c) {
+        return addAll(list.size(), c);
+    }
+
+    @Override
+    public synchronized boolean addAll(int index, Collection<? extends T> c) {
+        List<T> added = new ArrayList<T>(c);
+        list.addAll(index, added);
+        for (T t : added)
+            increment(t);
+        return !added.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean removeAll(Collection<?> c) {
+        boolean changed = list.removeAll(c);
+        if (changed)
+            reindex();
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean retainAll(Collection<?> c) {
+        boolean changed = list.retainAll(c);
+        if (changed)
+            reindex();
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean removeIf(Predicate<? super T> filter) {
+        boolean changed = list.removeIf(filter);
+        if (changed)
+            reindex();
+        return changed;
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<? super T> action) {
+        list.forEach(action);
+    }
+
+    @Override
+    public synchronized void replaceAll(UnaryOperator<T> operator) {
+        list.replaceAll(operator);
+        reindex();
+    }
+
+    @Override
+    public synchronized void sort(Comparator<? super T> c) {
+        list.sort(c);
+    }
+
+    @Override
+    public synchronized void clear() {
+        list.clear();
+        counts.clear();
+    }
+
+    @Override
+    public synchronized boolean equals(Object o) {
+        return o == this || list.equals(o);
+    }
+
+    @Override
+    public synchronized int hashCode() {
+        return list.hashCode();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return list.toString();
+    }
+
+    @Override
+    public synchronized T get(int index) {
+        return list.get(index);
+    }
+
+    @Override
+    public synchronized T set(int index, T element) {
+        T old = list.set(index, element);
+        decrement(old);
+        increment(element);
+        return old;
+    }
+
+    @Override
+    public synchronized void add(int index, T element) {
+        list.add(index, element);
+        increment(element);
+    }
+
+    @Override
+    public synchronized T remove(int index) {
+        T old = list.remove(index);
+        decrement(old);
+        return old;
+    }
+
+    @Override
+    public synchronized int indexOf(Object o) {
+        return counts.containsKey(o) ? list.indexOf(o) : -1;
+    }
+
+    @Override
+    public synchronized int lastIndexOf(Object o) {
+        return counts.containsKey(o) ? list.lastIndexOf(o) : -1;
+    }
+
+    @Override
+    public ListIterator<T> listIterator() {
+        return snapshot().listIterator();
+    }
+
+    @Override
+    public ListIterator<T> listIterator(int index) {
+        return snapshot().listIterator(index);
+    }
+
+    @Override
+    public List<T> subList(int fromIndex, int toIndex) {
+        return snapshot().subList(fromIndex, toIndex);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> snapshot() {
+        return Collections.unmodifiableList((List<T>) Arrays.asList(toArray()));
+    }
+
+    @GuardedBy("this")
+    private void increment(Object o) {
+        Integer n = counts.get(o);
+        counts.put(o, n == null ? 1 : n + 1);
+    }
+
+    @GuardedBy("this")
+    private void decrement(Object o) {
+        Integer n = counts.get(o);
+        if (n == 1)
+            counts.remove(o);
+        else
+            counts.put(o, n - 1);
+    }
+
+    @GuardedBy("this")
+    private void reindex() {
+        counts.clear();
+        for (T t : list)
+            increment(t);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * LocationFrame.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link LocationFrame} is a frame of vehicle locations as sent by a GPS gateway, held as parallel arrays: vehicle {@code ids[i]}
+ * is at ({@code xs[i]}, {@code ys[i]}). On the wire a frame is a sequence of records, in the byte order of the buffer:
+ * <pre>
+ *   short id length | id in UTF-8 | int x | int y
+ * </pre>
+ * The trackers' {@code setLocations} methods take either form.
+ */
+public final class LocationFrame {
+    public final String[] ids;
+    public final int[] xs;
+    public final int[] ys;
+
+    public LocationFrame(String[] ids, int[] xs, int[] ys) {
+        checkLengths(ids, xs, ys);
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    static void checkLengths(String[] ids, int[] xs, int[] ys) {
+        if (ids.length != xs.length || ids.length != ys.length)
+            throw new IllegalArgumentException("ids, xs and ys must have the same length");
+    }
+
+    /**
+     * Decodes the records between the buffer's position and its limit, without changing either.
+     *
+     * @throws IllegalArgumentException if the last record is incomplete
+     */
+    public static LocationFrame decode(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate().order(frame.order());
+        int capacity = Math.max(16, in.remaining() / 16);
+        String[] ids = new String[capacity];
+        int[] xs = new int[capacity];
+        int[] ys = new int[capacity];
+        int n = 0;
+        try {
+            while (in.hasRemaining()) {
+                if (n == ids.length) {
+                    ids = Arrays.copyOf(ids, n * 2);
+                    xs = Arrays.copyOf(xs, n * 2);
+                    ys = Arrays.copyOf(ys, n * 2);
+                }
+                byte[] id = new byte[in.getShort() & 0xFFFF];
+                in.get(id);
+                ids[n] = new String(id, StandardCharsets.UTF_8);
+                xs[n] = in.getInt();
+                ys[n] = in.getInt();
+                n++;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated location record " + n, e);
+        }
+        return new LocationFrame(Arrays.copyOf(ids, n), Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
+    }
+
+    /**
+     * Appends the frame's records to {@code out}, which must have room for them.
+     */
+    public void encode(ByteBuffer out) {
+        for (int i = 0; i < ids.length; i++) {
+            byte[] id = ids[i].getBytes(StandardCharsets.UTF_8);
+            if (id.length > 0xFFFF)
+                throw new IllegalArgumentException("vehicle id too long: " + ids[i]);
+            out.putShort((short) id.length);
+            out.put(id);
+            out.putInt(xs[i]);
+            out.putInt(ys[i]);
+        }
+    }
+}
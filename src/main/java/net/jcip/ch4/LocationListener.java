@@ -0,0 +1,25 @@
+/*
+ * LocationListener.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.util.Map;
+
+/**
+ * Receives batches of location changes from a {@link LocationSubscription}.
+ */
+public interface LocationListener {
+    /**
+     * Called with the vehicles that moved since the previous batch, each at its latest location. Batches of one subscription are
+     * delivered one at a time, in order.
+     */
+    void onLocationsChanged(Map<String, Point> changes);
+}
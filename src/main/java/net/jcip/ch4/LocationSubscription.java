@@ -0,0 +1,232 @@
+/*
+ * LocationSubscription.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link LocationSubscription} pushes the location changes of a {@link PackedVehicleTracker} to a {@link LocationListener}, so
+ * that consumers no longer have to poll {@link PackedVehicleTracker#getLocations()}.
+ * <p>
+ * A subscription does not queue locations, only which vehicles have moved. Each vehicle has a dirty bit; an update whose vehicle
+ * is already dirty costs the writer one read of that bit and nothing else, and an update that makes it dirty appends the vehicle's
+ * slot to a bounded ring buffer. The delivery task, run on the subscription's executor, takes everything in the ring as one batch,
+ * clears the dirty bits, and only then reads the current locations; a burst of updates to one vehicle is therefore delivered once,
+ * at its latest position, and a slow listener falls behind by at most one batch rather than accumulating a backlog. A vehicle
+ * that moves again after its bit is cleared is simply marked dirty again for the next batch.
+ * <p>
+ * The ring is only full when more distinct vehicles have moved than it holds. What happens then is the subscription's {@link
+ * BackpressurePolicy}: {@code DROP_OLDEST} discards the change of the vehicle that has waited longest (counted by {@link
+ * #getDroppedCount()}), and {@code BLOCK} makes the updating thread wait for the listener to catch up. A ring as large as the
+ * fleet never fills.
+ * <p>
+ * Deliveries of one subscription never overlap: a task is scheduled when the ring goes from empty to not empty, it drains until
+ * the ring is empty, and it reschedules itself if a change slipped in after it finished.
+ * <p>
+ * If the executor rejects a delivery, nothing would drain the ring again, and under {@code BLOCK} the updating threads would wait
+ * forever, so the subscription closes itself; {@link #getRejection()} tells why.
+ */
+@ThreadSafe
+public class LocationSubscription implements AutoCloseable {
+    public enum BackpressurePolicy { DROP_OLDEST, BLOCK }
+
+    private final PackedVehicleTracker tracker;
+    private final LocationListener listener;
+    private final Executor executor;
+    private final BackpressurePolicy policy;
+    private final AtomicLongArray dirty;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    @GuardedBy("lock") private final int[] ring;
+    @GuardedBy("lock") private int head;
+    @GuardedBy("lock") private int count;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+    private volatile RejectedExecutionException rejection;
+    private final Runnable delivery = new Runnable() {
+        public void run() {
+            deliver();
+        }
+    };
+
+    LocationSubscription(PackedVehicleTracker tracker, LocationListener listener, int capacity, BackpressurePolicy policy,
+                    Executor executor) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.tracker = tracker;
+        this.listener = listener;
+        this.executor = executor;
+        this.policy = policy;
+        this.ring = new int[capacity];
+        this.dirty = new AtomicLongArray((tracker.size() + 63) >>> 6);
+    }
+
+    /**
+     * Stops deliveries and discards the changes not delivered yet; a batch being delivered is finished. Threads blocked by the
+     * {@code BLOCK} policy are released.
+     */
+    public void close() {
+        closed = true;
+        tracker.unsubscribe(this);
+        lock.lock();
+        try {
+            for (; count > 0; count--) {
+                clearDirty(ring[head]);
+                head = (head + 1) % ring.length;
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the rejection by the executor that closed this subscription, or null if the executor has accepted every delivery.
+     */
+    public RejectedExecutionException getRejection() {
+        return rejection;
+    }
+
+    /**
+     * Returns the number of changes discarded by the {@code DROP_OLDEST} policy, or because an updating thread was interrupted
+     * while blocked by the {@code BLOCK} policy.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Called by the tracker after it has written the location of {@code slot}.
+     */
+    void changed(int slot) {
+        if (!markDirty(slot))
+            return;
+        boolean wasEmpty;
+        lock.lock();
+        try {
+            while (count == ring.length) {
+                if (policy == BackpressurePolicy.DROP_OLDEST || closed) {
+                    clearDirty(ring[head]);
+                    head = (head + 1) % ring.length;
+                    count--;
+                    dropped.increment();
+                } else {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        clearDirty(slot);
+                        dropped.increment();
+                        return;
+                    }
+                }
+            }
+            ring[(head + count) % ring.length] = slot;
+            wasEmpty = count++ == 0;
+        } finally {
+            lock.unlock();
+        }
+        if (wasEmpty)
+            schedule();
+    }
+
+    private void schedule() {
+        if (closed || !scheduled.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(delivery);
+        } catch (RejectedExecutionException e) {
+            rejection = e;
+            scheduled.set(false);
+            close();
+        }
+    }
+
+    private void deliver() {
+        try {
+            int[] batch;
+            while (!closed && (batch = takeAll()).length > 0) {
+                Map<String, Point> changes = new HashMap<String, Point>(batch.length * 4 / 3 + 1);
+                for (int slot : batch)
+                    changes.put(tracker.idOf(slot), PackedVehicleTracker.unpack(tracker.locationOf(slot)));
+                listener.onLocationsChanged(changes);
+            }
+        } finally {
+            scheduled.set(false);
+            if (!closed && !isEmpty())
+                schedule();
+        }
+    }
+
+    private int[] takeAll() {
+        lock.lock();
+        try {
+            int[] batch = new int[count];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = ring[(head + i) % ring.length];
+                clearDirty(batch[i]);
+            }
+            head = (head + count) % ring.length;
+            count = 0;
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isEmpty() {
+        lock.lock();
+        try {
+            return count == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean markDirty(int slot) {
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        while (true) {
+            long bits = dirty.get(word);
+            if ((bits & bit) != 0)
+                return false;
+            if (dirty.compareAndSet(word, bits, bits | bit))
+                return true;
+        }
+    }
+
+    private void clearDirty(int slot) {
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        while (true) {
+            long bits = dirty.get(word);
+            if (dirty.compareAndSet(word, bits, bits & ~bit))
+                return;
+        }
+    }
+}
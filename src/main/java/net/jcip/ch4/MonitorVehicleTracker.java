@@ -11,8 +11,11 @@
  */
 package net.jcip.ch4;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
@@ -32,6 +35,9 @@ import net.jcip.annotations.ThreadSafe;
  * benefit if there are internal consistency requirements on the location set, in which case returning a consistent snapshot is
  * critical, or a drawback if callers require up-to-date information for each vehicle and therefore need to refresh their snapshot
  * more often.
+ * <p>
+ * {@link #setLocations(String[], int[], int[])} applies a whole frame of updates while holding the lock once, instead of once per
+ * vehicle; a frame received as a {@link ByteBuffer} is decoded before the lock is taken.
  */
 @ThreadSafe public class MonitorVehicleTracker {
     @GuardedBy("this")
@@ -58,6 +64,34 @@ import net.jcip.annotations.ThreadSafe;
         loc.y = y;
     }
 
+    /**
+     * Sets the location of every vehicle in the frame and returns the IDs of the vehicles that do not exist, whose locations are
+     * skipped.
+     */
+    public synchronized List<String> setLocations(String[] ids, int[] xs, int[] ys) {
+        LocationFrame.checkLengths(ids, xs, ys);
+        List<String> unknown = new ArrayList<String>(0);
+        for (int i = 0; i < ids.length; i++) {
+            MutablePoint loc = locations.get(ids[i]);
+            if (loc == null) {
+                unknown.add(ids[i]);
+            } else {
+                loc.x = xs[i];
+                loc.y = ys[i];
+            }
+        }
+        return unknown;
+    }
+
+    /**
+     * Sets the locations of a frame encoded as described in {@link LocationFrame}; see {@link #setLocations(String[], int[],
+     * int[])}.
+     */
+    public List<String> setLocations(ByteBuffer frame) {
+        LocationFrame f = LocationFrame.decode(frame);
+        return setLocations(f.ids, f.xs, f.ys);
+    }
+
     private static Map<String, MutablePoint> deepCopy(Map<String, MutablePoint> m) {
         Map<String, MutablePoint> result = new HashMap<String, MutablePoint>();
         for (String id : m.keySet())
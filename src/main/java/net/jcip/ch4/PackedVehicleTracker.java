@@ -0,0 +1,233 @@
+/*
+ * PackedVehicleTracker.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link PackedVehicleTracker} has the semantics of {@link DelegatingVehicleTracker}, but updating a location allocates nothing.
+ * {@link DelegatingVehicleTracker} creates a {@link Point} and replaces a map entry on every update, which at hundreds of
+ * thousands of updates per second makes it the main source of garbage.
+ * <p>
+ * The fleet is fixed at construction, as it effectively is for the other trackers, whose setLocation rejects unknown vehicles.
+ * So each vehicle ID is interned to a dense slot number once, in a map that is never modified afterwards and is therefore safely
+ * shared by all threads. A location is a single {@code long} in an {@link AtomicLongArray}, with x in the high half and y in the
+ * low half. Writing both coordinates is one volatile write, and reading them is one volatile read, so a reader can never see the
+ * x of one update with the y of another, without any lock.
+ * <p>
+ * {@link Point}s are created only when locations are read. {@link #getLocations()} returns an unmodifiable live view like
+ * {@link DelegatingVehicleTracker}'s, and {@link #getLocationsSnapShot()} a copy.
+ * <p>
+ * Unlike {@link PublishingVehicleTracker}, this tracker can act when a location changes: {@link #subscribe(LocationListener, int,
+ * LocationSubscription.BackpressurePolicy, Executor)} registers a listener that is pushed batches of changes. Subscriptions are
+ * kept in a copy-on-write array, so an update walks them without locking or allocating.
+ */
+@ThreadSafe
+public class PackedVehicleTracker {
+    private final Map<String, Integer> slots;
+    private final String[] ids;
+    private final AtomicLongArray locations;
+    private final Map<String, Point> view = new LocationView();
+    private volatile LocationSubscription[] subscriptions = new LocationSubscription[0];
+
+    public PackedVehicleTracker(Map<String, Point> points) {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        ids = new String[points.size()];
+        locations = new AtomicLongArray(points.size());
+        int slot = 0;
+        for (Map.Entry<String, Point> e : points.entrySet()) {
+            slots.put(e.getKey(), slot);
+            ids[slot] = e.getKey();
+            locations.set(slot, pack(e.getValue().x, e.getValue().y));
+            slot++;
+        }
+        this.slots = slots;
+    }
+
+    public Point getLocation(String id) {
+        Integer slot = slots.get(id);
+        return slot == null ? null : unpack(locations.get(slot));
+    }
+
+    public void setLocation(String id, int x, int y) {
+        Integer slot = slots.get(id);
+        if (slot == null)
+            throw new IllegalArgumentException("invalid vehicle name: " + id);
+        set(slot, pack(x, y));
+    }
+
+    /**
+     * Sets the location of every vehicle in the frame and returns the IDs of the vehicles that do not exist, whose locations are
+     * skipped. Each location is written as by {@link #setLocation(String, int, int)}, without locking and without allocating
+     * anything per vehicle.
+     */
+    public List<String> setLocations(String[] ids, int[] xs, int[] ys) {
+        LocationFrame.checkLengths(ids, xs, ys);
+        List<String> unknown = new ArrayList<String>(0);
+        for (int i = 0; i < ids.length; i++) {
+            Integer slot = slots.get(ids[i]);
+            if (slot == null)
+                unknown.add(ids[i]);
+            else
+                set(slot, pack(xs[i], ys[i]));
+        }
+        return unknown;
+    }
+
+    /**
+     * Sets the locations of a frame encoded as described in {@link LocationFrame}; see {@link #setLocations(String[], int[],
+     * int[])}.
+     */
+    public List<String> setLocations(ByteBuffer frame) {
+        LocationFrame f = LocationFrame.decode(frame);
+        return setLocations(f.ids, f.xs, f.ys);
+    }
+
+    public Map<String, Point> getLocations() {
+        return view;
+    }
+
+    public Map<String, Point> getLocationsSnapShot() {
+        Map<String, Point> copy = new HashMap<String, Point>(ids.length * 4 / 3 + 1);
+        for (int slot = 0; slot < ids.length; slot++)
+            copy.put(ids[slot], unpack(locations.get(slot)));
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Registers {@code listener} for the location changes from now on, delivered in batches on {@code executor}.
+     *
+     * @param capacity the number of distinct vehicles whose changes can wait for delivery before {@code policy} applies
+     */
+    public LocationSubscription subscribe(LocationListener listener, int capacity,
+                    LocationSubscription.BackpressurePolicy policy, Executor executor) {
+        LocationSubscription s = new LocationSubscription(this, listener, capacity, policy, executor);
+        synchronized (this) {
+            LocationSubscription[] current = subscriptions;
+            LocationSubscription[] updated = new LocationSubscription[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = s;
+            subscriptions = updated;
+        }
+        return s;
+    }
+
+    synchronized void unsubscribe(LocationSubscription s) {
+        LocationSubscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == s) {
+                LocationSubscription[] updated = new LocationSubscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                subscriptions = updated;
+                return;
+            }
+        }
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the slot of the vehicle, or -1 if there is none.
+     */
+    int slotOf(String id) {
+        Integer slot = slots.get(id);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Writes the packed location of a slot and tells the subscriptions, as {@link #setLocation(String, int, int)} does.
+     */
+    void set(int slot, long location) {
+        locations.set(slot, location);
+        for (LocationSubscription s : subscriptions)
+            s.changed(slot);
+    }
+
+    String idOf(int slot) {
+        return ids[slot];
+    }
+
+    long locationOf(int slot) {
+        return locations.get(slot);
+    }
+
+    static long pack(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    static Point unpack(long location) {
+        return new Point((int) (location >> 32), (int) location);
+    }
+
+    /**
+     * The live view returned by {@link #getLocations()}: every read goes to the location array.
+     */
+    private final class LocationView extends AbstractMap<String, Point> {
+        @Override
+        public Point get(Object key) {
+            Integer slot = slots.get(key);
+            return slot == null ? null : unpack(locations.get(slot));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return slots.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Point>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Point>>() {
+                public int size() {
+                    return ids.length;
+                }
+
+                public Iterator<Map.Entry<String, Point>> iterator() {
+                    return new Iterator<Map.Entry<String, Point>>() {
+                        private int slot;
+
+                        public boolean hasNext() {
+                            return slot < ids.length;
+                        }
+
+                        public Map.Entry<String, Point> next() {
+                            if (slot >= ids.length)
+                                throw new NoSuchElementException();
+                            int s = slot++;
+                            return new SimpleImmutableEntry<String, Point>(ids[s], unpack(locations.get(s)));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * SpatialVehicleTracker.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import net.jcip.annotations.ThreadSafe;
+
+import static net.jcip.ch4.PackedVehicleTracker.pack;
+import static net.jcip.ch4.PackedVehicleTracker.unpack;
+
+/**
+ * {@link SpatialVehicleTracker} tracks a fleet like {@link PackedVehicleTracker}, and can also answer "which vehicles are in this
+ * box", "which are within this distance" and "which are nearest", without scanning the fleet. The vehicle IDs, slots and packed
+ * locations are held by a {@link PackedVehicleTracker} it owns; {@link #getLocation(String)}, {@link #getLocations()} and {@link
+ * #getLocationsSnapShot()} are that tracker's. All updates go through {@link #setLocation(String, int, int)}, which keeps the
+ * index described below in step with the locations.
+ * <p>
+ * The plane is divided into square cells of {@code cellSize}, and each occupied cell holds the set of vehicles in it, in a
+ * {@link ConcurrentHashMap} keyed by cell. A query visits only the cells that overlap its area, so its cost depends on the number
+ * of vehicles near it rather than on the size of the fleet. The index is updated by {@link #setLocation(String, int, int)}
+ * itself, and only when a vehicle crosses into another cell; moves within a cell just write the packed location and allocate
+ * nothing. Vehicles are stored in cells as preallocated {@link Integer} slot numbers, but crossing into another cell boxes the
+ * {@link Long} keys of both cells and updates them through {@link ConcurrentHashMap#compute}, which allocates.
+ * <p>
+ * Updates of the same vehicle are serialized by one of a set of striped locks, so that two concurrent updates cannot leave a
+ * vehicle in two cells; updates of different vehicles rarely share a lock, and queries take none. A moving vehicle is added to
+ * its new cell before its location is written and removed from the old one after, so it is always in at least one cell, and a
+ * query reports each vehicle at most once, at the location it read. Like an iterator over a concurrent collection, a query is
+ * weakly consistent: it sees a vehicle that moves while the query runs either at its old location, at its new one, or not at all.
+ * <p>
+ * An emptied cell is removed from the map, atomically with the removal of its last vehicle, so the index does not grow with the
+ * area the fleet has ever covered.
+ */
+@ThreadSafe
+public class SpatialVehicleTracker {
+    private static final int LOCK_STRIPES = 64;
+
+    private final PackedVehicleTracker tracker;
+    private final Integer[] slotIds;
+    private final ConcurrentMap<Long, Set<Integer>> cells = new ConcurrentHashMap<Long, Set<Integer>>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final int cellSize;
+
+    public SpatialVehicleTracker(Map<String, Point> points, int cellSize) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        this.cellSize = cellSize;
+        this.tracker = new PackedVehicleTracker(points);
+        slotIds = new Integer[tracker.size()];
+        for (int slot = 0; slot < slotIds.length; slot++) {
+            slotIds[slot] = slot;
+            long location = tracker.locationOf(slot);
+            addToCell(cellOf((int) (location >> 32), (int) location), slotIds[slot]);
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+    }
+
+    public Point getLocation(String id) {
+        return tracker.getLocation(id);
+    }
+
+    public void setLocation(String id, int x, int y) {
+        int slot = tracker.slotOf(id);
+        if (slot < 0)
+            throw new IllegalArgumentException("invalid vehicle name: " + id);
+        long location = pack(x, y);
+        synchronized (locks[slot & (LOCK_STRIPES - 1)]) {
+            long old = tracker.locationOf(slot);
+            long oldCell = cellOf((int) (old >> 32), (int) old);
+            long newCell = cellOf(x, y);
+            if (oldCell == newCell) {
+                tracker.set(slot, location);
+            } else {
+                addToCell(newCell, slotIds[slot]);
+                tracker.set(slot, location);
+                removeFromCell(oldCell, slotIds[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns an unmodifiable live view of the locations, as {@link PackedVehicleTracker#getLocations()} does.
+     */
+    public Map<String, Point> getLocations() {
+        return tracker.getLocations();
+    }
+
+    public Map<String, Point> getLocationsSnapShot() {
+        return tracker.getLocationsSnapShot();
+    }
+
+    /**
+     * Returns the vehicles inside the box, bounds included.
+     */
+    public Map<String, Point> getLocationsInBox(int minX, int minY, int maxX, int maxY) {
+        Map<String, Point> result = new HashMap<String, Point>();
+        for (Set<Integer> cell : cellsOverlapping(minX, minY, maxX, maxY)) {
+            for (Integer slot : cell) {
+                long location = tracker.locationOf(slot);
+                int x = (int) (location >> 32);
+                int y = (int) location;
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                    result.put(tracker.idOf(slot), new Point(x, y));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the vehicles within {@code radius} of (x, y), boundary included.
+     */
+    public Map<String, Point> getLocationsWithin(int x, int y, int radius) {
+        if (radius < 0)
+            throw new IllegalArgumentException("radius must not be negative: " + radius);
+        long r2 = (long) radius * radius;
+        Map<String, Point> result = new HashMap<String, Point>();
+        for (Set<Integer> cell : cellsOverlapping(clamp((long) x - radius), clamp((long) y - radius), clamp((long) x + radius),
+                        clamp((long) y + radius))) {
+            for (Integer slot : cell) {
+                long location = tracker.locationOf(slot);
+                if (distanceSquared(location, x, y) <= r2)
+                    result.put(tracker.idOf(slot), unpack(location));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the {@code k} vehicles nearest to (x, y), nearest first.
+     * <p>
+     * The search visits rings of cells of growing radius around the cell of (x, y), and stops once it has {@code k} candidates
+     * and the next ring cannot hold anything nearer than the {@code k}th of them. If the rings grow to more cells than are
+     * occupied, the vehicles are too sparse for rings to pay off, and the remaining occupied cells are scanned directly.
+     */
+    public Map<String, Point> getNearest(int x, int y, int k) {
+        if (k <= 0)
+            return Collections.emptyMap();
+        Map<Integer, Long> candidates = new HashMap<Integer, Long>();
+        long cx = Math.floorDiv(x, cellSize);
+        long cy = Math.floorDiv(y, cellSize);
+        long visited = 0;
+        for (long d = 0; ; d++) {
+            if (visited > cells.size()) {
+                for (Set<Integer> cell : cells.values())
+                    collect(cell, candidates);
+                break;
+            }
+            if (d == 0) {
+                visited += visit(cx, cy, candidates);
+            } else {
+                for (long i = cx - d; i <= cx + d; i++)
+                    visited += visit(i, cy - d, candidates) + visit(i, cy + d, candidates);
+                for (long j = cy - d + 1; j < cy + d; j++)
+                    visited += visit(cx - d, j, candidates) + visit(cx + d, j, candidates);
+            }
+            if (candidates.size() >= k) {
+                long reach = d * (long) cellSize;
+                if (kthDistanceSquared(candidates, x, y, k) <= reach * reach)
+                    break;
+            }
+            if (candidates.size() == tracker.size() && d > 0)
+                break;
+        }
+        List<Map.Entry<Integer, Long>> sorted = byDistance(candidates, x, y);
+        Map<String, Point> result = new LinkedHashMap<String, Point>();
+        for (int i = 0; i < sorted.size() && i < k; i++)
+            result.put(tracker.idOf(sorted.get(i).getKey()), unpack(sorted.get(i).getValue()));
+        return result;
+    }
+
+    private int visit(long i, long j, Map<Integer, Long> candidates) {
+        Set<Integer> cell = cells.get(cellKey(i, j));
+        if (cell != null)
+            collect(cell, candidates);
+        return 1;
+    }
+
+    private void collect(Set<Integer> cell, Map<Integer, Long> candidates) {
+        for (Integer slot : cell)
+            candidates.put(slot, tracker.locationOf(slot));
+    }
+
+    private long kthDistanceSquared(Map<Integer, Long> candidates, int x, int y, int k) {
+        return distanceSquared(byDistance(candidates, x, y).get(k - 1).getValue(), x, y);
+    }
+
+    private static List<Map.Entry<Integer, Long>> byDistance(Map<Integer, Long> candidates, final int x, final int y) {
+        List<Map.Entry<Integer, Long>> sorted = new ArrayList<Map.Entry<Integer, Long>>(candidates.entrySet());
+        sorted.sort(new Comparator<Map.Entry<Integer, Long>>() {
+            public int compare(Map.Entry<Integer, Long> a, Map.Entry<Integer, Long> b) {
+                return Long.compare(distanceSquared(a.getValue(), x, y), distanceSquared(b.getValue(), x, y));
+            }
+        });
+        return sorted;
+    }
+
+    private Collection<Set<Integer>> cellsOverlapping(int minX, int minY, int maxX, int maxY) {
+        long fromX = Math.floorDiv(minX, cellSize), toX = Math.floorDiv(maxX, cellSize);
+        long fromY = Math.floorDiv(minY, cellSize), toY = Math.floorDiv(maxY, cellSize);
+        if (fromX > toX || fromY > toY)
+            return Collections.emptyList();
+        List<Set<Integer>> result = new ArrayList<Set<Integer>>();
+        if ((toX - fromX + 1) * (toY - fromY + 1) > cells.size()) {
+            // the box spans more cells than are occupied: filter the occupied ones instead of probing every cell in the box
+            for (Map.Entry<Long, Set<Integer>> e : cells.entrySet()) {
+                long i = e.getKey() >> 32, j = (int) (long) e.getKey();
+                if (i >= fromX && i <= toX && j >= fromY && j <= toY)
+                    result.add(e.getValue());
+            }
+        } else {
+            for (long i = fromX; i <= toX; i++) {
+                for (long j = fromY; j <= toY; j++) {
+                    Set<Integer> cell = cells.get(cellKey(i, j));
+                    if (cell != null)
+                        result.add(cell);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addToCell(long cell, final Integer slot) {
+        cells.compute(cell, new BiFunction<Long, Set<Integer>, Set<Integer>>() {
+            public Set<Integer> apply(Long key, Set<Integer> vehicles) {
+                if (vehicles == null)
+                    vehicles = ConcurrentHashMap.newKeySet();
+                vehicles.add(slot);
+                return vehicles;
+            }
+        });
+    }
+
+    private void removeFromCell(long cell, final Integer slot) {
+        cells.computeIfPresent(cell, new BiFunction<Long, Set<Integer>, Set<Integer>>() {
+            public Set<Integer> apply(Long key, Set<Integer> vehicles) {
+                vehicles.remove(slot);
+                return vehicles.isEmpty() ? null : vehicles;
+            }
+        });
+    }
+
+    private long cellOf(int x, int y) {
+        return cellKey(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize));
+    }
+
+    private static long cellKey(long i, long j) {
+        return i << 32 | (j & 0xFFFFFFFFL);
+    }
+
+    private static long distanceSquared(long location, int x, int y) {
+        long dx = (int) (location >> 32) - (long) x;
+        long dy = (int) location - (long) y;
+        return dx * dx + dy * dy;
+    }
+
+    private static int clamp(long v) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * VehicleJournal.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link VehicleJournal} makes the locations of a {@link PackedVehicleTracker} survive a restart. It is a {@link
+ * LocationListener}: it receives the tracker's changes through a {@link LocationSubscription}, so the update path never waits
+ * for the disk, and writes them to a directory holding
+ * <ul>
+ * <li>{@code snapshot.dat}: every vehicle's location as of the end of some log generation, followed by a CRC-32;</li>
+ * <li>{@code journal-<generation>.log}: the batches of changes since, each written as {@code int length | int CRC-32 | payload}.
+ * </li>
+ * </ul>
+ * Every batch is appended with one write and made durable with one {@link FileChannel#force(boolean)}. That is group commit for
+ * free: while the journal waits for the disk, the subscription keeps coalescing changes, so the slower the disk, the larger and
+ * fewer the batches, and a vehicle updated many times during one fsync is written once.
+ * <p>
+ * Once the current log exceeds {@code compactAfterBytes}, the journal starts the next log generation and hands a copy of the
+ * locations it has logged so far to its compaction thread, so that the feed is held up only for the copy, not for the disk. The
+ * compaction thread writes the copy as a new snapshot to a temporary file that is forced and then atomically renamed over the old
+ * snapshot, and the directory is forced after the new log is created, after the rename and after the old logs are deleted. The
+ * snapshot records the generation of the log started with it, so recovery replays only the logs from it on, and older logs are
+ * deleted only after the rename. A crash at any point therefore leaves either the old snapshot and all the logs after it, or the
+ * new snapshot and the logs from its generation on. A snapshot that cannot be written is logged and left to the next compaction;
+ * the old snapshot and logs stay valid.
+ * <p>
+ * {@link #recover(File)} reads the snapshot and replays the logs, stopping at the first batch whose length or checksum shows it
+ * was torn by a crash. It is one sequential read of compact binary records, so millions of vehicles are recovered in seconds.
+ * Opening a journal recovers the directory and compacts it at once, so that writing resumes on a clean log.
+ * <p>
+ * The journal must receive every change, so it subscribes with a ring as large as the fleet, which never fills; see {@link
+ * #subscribe(PackedVehicleTracker, Executor)}. The changes of a batch are no longer marked in the subscription once they are
+ * delivered, so a batch that cannot be written is lost, and every batch after it would be written behind a torn record that
+ * recovery stops at. A failure to write therefore fails the journal: it closes the subscription and the log, is rethrown from
+ * {@link #onLocationsChanged(Map)} as an {@link UncheckedIOException}, to be reported by the subscription's executor, and is
+ * returned by {@link #getFailure()} and rethrown by {@link #close()}.
+ */
+@ThreadSafe
+public class VehicleJournal implements LocationListener, Closeable {
+    public static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    private static final int SNAPSHOT_MAGIC = 0x56534E50;
+    private static final Logger LOG = Logger.getLogger(VehicleJournal.class.getName());
+
+    private final File directory;
+    private final long compactAfterBytes;
+    private final ExecutorService compactor;
+    @GuardedBy("this") private final Map<String, Point> state;
+    @GuardedBy("this") private long generation;
+    @GuardedBy("this") private FileChannel log;
+    @GuardedBy("this") private long logBytes;
+    @GuardedBy("this") private boolean compacting;
+    @GuardedBy("this") private boolean closed;
+    @GuardedBy("this") private IOException failure;
+    @GuardedBy("this") private LocationSubscription subscription;
+
+    public VehicleJournal(File directory, long compactAfterBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create directory " + directory);
+        this.directory = directory;
+        this.compactAfterBytes = compactAfterBytes;
+        this.compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "vehicle-journal-compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        synchronized (this) {
+            Recovery recovery = replay(directory);
+            this.state = recovery.locations;
+            this.generation = recovery.lastGeneration;
+            compact();
+        }
+    }
+
+    /**
+     * Returns the locations recorded in {@code directory}, or an empty map if it holds no journal.
+     */
+    public static Map<String, Point> recover(File directory) throws IOException {
+        return replay(directory).locations;
+    }
+
+    /**
+     * Subscribes this journal to every change of {@code tracker}, with writes done on {@code executor}, and records the current
+     * location of every vehicle in a snapshot, so that vehicles that never move are recovered too.
+     * <p>
+     * The snapshot is taken after subscribing. A batch written after it may hold an older location than the snapshot, but only
+     * for a vehicle that has moved since the batch read it, and which is therefore already marked for the next batch.
+     */
+    public LocationSubscription subscribe(PackedVehicleTracker tracker, Executor executor) throws IOException {
+        LocationSubscription s;
+        synchronized (this) {
+            if (closed)
+                throw new IOException("journal is closed", failure);
+            if (subscription != null)
+                throw new IllegalStateException("journal is already subscribed");
+            s = tracker.subscribe(this, Math.max(1, tracker.size()), LocationSubscription.BackpressurePolicy.BLOCK, executor);
+            subscription = s;
+        }
+        try {
+            synchronized (this) {
+                state.putAll(tracker.getLocationsSnapShot());
+                compact();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                fail(e);
+            }
+            throw e;
+        }
+        return s;
+    }
+
+    public synchronized void onLocationsChanged(Map<String, Point> changes) {
+        if (closed)
+            return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + changes.size() * 24);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(changes.size());
+            for (Map.Entry<String, Point> e : changes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().x);
+                out.writeInt(e.getValue().y);
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 8, record.limit() - 8);
+            record.putInt(0, record.limit() - 8);
+            record.putInt(4, (int) crc.getValue());
+            while (record.hasRemaining())
+                log.write(record);
+            log.force(false);
+            logBytes += record.limit();
+            state.putAll(changes);
+            if (logBytes >= compactAfterBytes && !compacting)
+                compactInBackground();
+        } catch (IOException e) {
+            fail(e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the failure to write that closed this journal, or null.
+     */
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Unsubscribes from the tracker, waits for a compaction in progress and closes the log. Throws the failure that closed the
+     * journal earlier, if any.
+     */
+    public void close() throws IOException {
+        LocationSubscription s;
+        synchronized (this) {
+            s = subscription;
+            subscription = null;
+        }
+        if (s != null)
+            s.close();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                log.close();
+            }
+            if (failure != null)
+                throw new IOException("journal failed", failure);
+        }
+    }
+
+    @GuardedBy("this")
+    private void fail(IOException e) {
+        if (failure == null)
+            failure = e;
+        closed = true;
+        if (subscription != null)
+            subscription.close();
+        try {
+            log.close();
+        } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+    }
+
+    /**
+     * Starts the next log and writes the snapshot in the calling thread, waiting for a background compaction to finish first.
+     */
+    @GuardedBy("this")
+    private void compact() throws IOException {
+        while (compacting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for compaction", e);
+            }
+        }
+        startGeneration();
+        writeSnapshot(state, generation);
+        deleteLogsBefore(generation);
+    }
+
+    /**
+     * Starts the next log, and writes the snapshot of the locations logged so far on the compaction thread.
+     */
+    @GuardedBy("this")
+    private void compactInBackground() throws IOException {
+        startGeneration();
+        final Map<String, Point> copy = new HashMap<String, Point>(state);
+        final long next = generation;
+        compacting = true;
+        compactor.execute(new Runnable() {
+            public void run() {
+                try {
+                    writeSnapshot(copy, next);
+                    deleteLogsBefore(next);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "cannot compact vehicle journal", e);
+                } finally {
+                    synchronized (VehicleJournal.this) {
+                        compacting = false;
+                        VehicleJournal.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    @GuardedBy("this")
+    private void startGeneration() throws IOException {
+        if (log != null)
+            log.close();
+        generation++;
+        log = FileChannel.open(logFile(directory, generation).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        logBytes = 0;
+        syncDirectory();
+    }
+
+    /**
+     * Writes {@code locations} as the snapshot that the log of generation {@code next} follows. Called with the journal's lock
+     * held or on the compaction thread, never both at once.
+     */
+    private void writeSnapshot(Map<String, Point> locations, long next) throws IOException {
+        File temp = new File(directory, SNAPSHOT_TEMP_FILE);
+        FileOutputStream file = new FileOutputStream(temp);
+        try {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(next);
+            out.writeInt(locations.size());
+            for (Map.Entry<String, Point> e : locations.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().x);
+                out.writeInt(e.getValue().y);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        Files.move(temp.toPath(), new File(directory, SNAPSHOT_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    /**
+     * Deletes the logs older than generation {@code next}, newest first, up to the first one already gone.
+     */
+    private void deleteLogsBefore(long next) throws IOException {
+        for (long g = next - 1; g >= 0; g--) {
+            if (!logFile(directory, g).delete())
+                break;
+        }
+        syncDirectory();
+    }
+
+    /**
+     * Forces the directory itself, so that files created, renamed or deleted in it stay that way after a crash.
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private static Recovery replay(File directory) throws IOException {
+        Recovery recovery = new Recovery();
+        long generation = readSnapshot(new File(directory, SNAPSHOT_FILE), recovery.locations);
+        recovery.lastGeneration = generation - 1;
+        for (File f = logFile(directory, generation); f.isFile(); f = logFile(directory, ++generation)) {
+            recovery.lastGeneration = generation;
+            readLog(f, recovery.locations);
+        }
+        return recovery;
+    }
+
+    /**
+     * Reads the snapshot into {@code locations} and returns the generation of the first log after it, or 0 if there is none.
+     */
+    private static long readSnapshot(File file, Map<String, Point> locations) throws IOException {
+        if (!file.isFile())
+            return 0;
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16),
+                        new CRC32());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException("not a vehicle snapshot: " + file);
+            long generation = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+                locations.put(in.readUTF(), new Point(in.readInt(), in.readInt()));
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected)
+                throw new IOException("corrupt vehicle snapshot: " + file);
+            return generation;
+        }
+    }
+
+    private static void readLog(File file, Map<String, Point> locations) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > file.length())
+                        return;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != checksum)
+                    return;
+                DataInputStream batch = new DataInputStream(new ByteArrayInputStream(payload));
+                for (int i = batch.readInt(); i > 0; i--)
+                    locations.put(batch.readUTF(), new Point(batch.readInt(), batch.readInt()));
+            }
+        }
+    }
+
+    private static File logFile(File directory, long generation) {
+        return new File(directory, "journal-" + generation + ".log");
+    }
+
+    private static final class Recovery {
+        final Map<String, Point> locations = new HashMap<String, Point>();
+        long lastGeneration;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * VersionedVehicleTracker.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch4;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import net.jcip.annotations.ThreadSafe;
+
+import static net.jcip.ch4.PackedVehicleTracker.pack;
+import static net.jcip.ch4.PackedVehicleTracker.unpack;
+
+/**
+ * {@link VersionedVehicleTracker} takes consistent snapshots of the whole fleet in constant time. {@link MonitorVehicleTracker}
+ * deep-copies every location under its lock and {@link DelegatingVehicleTracker#getLocationsSnapShot()} copies the map, so a
+ * snapshot costs time proportional to the fleet and holds up writers; here it costs a read of a clock.
+ * <p>
+ * The tracker keeps a chain of versions per vehicle, newest first, and every version is stamped with an epoch from a global clock.
+ * A {@link Snapshot} is just the clock value when it was taken: for each vehicle it sees the newest version stamped no later than
+ * that, which is the same for every read through the snapshot, so the snapshot is immutable and consistent across the fleet.
+ * <p>
+ * The delicate part is stamping. A writer first links its version in with a CAS on the head of the chain, unstamped ({@code
+ * PENDING}), and then stamps it by CAS with a fresh epoch from the clock. A reader that meets a pending version stamps it itself
+ * the same way, so readers never wait for writers, and whoever stamps first wins. Either way the stamp is taken from the clock
+ * after the version was linked in, and therefore later than any snapshot that could have missed it, so a version can never appear
+ * in a snapshot that did not see it at first. A writer also stamps the version it links on top of, so the stamps along a chain
+ * always decrease.
+ * <p>
+ * Old versions are pruned by writers: a chain keeps the versions newer than the oldest open snapshot, plus the newest one that
+ * snapshot can see, and the rest is unlinked. Open snapshots are registered in a {@link ConcurrentSkipListSet} ordered by epoch,
+ * so the oldest is found in constant time; a snapshot must therefore be closed, which {@link AutoCloseable} makes easy. A
+ * snapshot registers itself before it reads the clock, so a writer pruning at the same time either sees it or started pruning
+ * before the snapshot's epoch existed, and in neither case unlinks a version the snapshot needs.
+ */
+@ThreadSafe
+public class VersionedVehicleTracker {
+    private static final long PENDING = Long.MAX_VALUE;
+
+    private final Map<String, Integer> slots;
+    private final String[] ids;
+    private final AtomicReferenceArray<Version> heads;
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong snapshotIds = new AtomicLong();
+    private final ConcurrentSkipListSet<Snapshot> openSnapshots = new ConcurrentSkipListSet<Snapshot>();
+
+    public VersionedVehicleTracker(Map<String, Point> points) {
+        Map<String, Integer> slots = new HashMap<String, Integer>();
+        ids = new String[points.size()];
+        heads = new AtomicReferenceArray<Version>(points.size());
+        int slot = 0;
+        for (Map.Entry<String, Point> e : points.entrySet()) {
+            slots.put(e.getKey(), slot);
+            ids[slot] = e.getKey();
+            heads.set(slot, new Version(pack(e.getValue().x, e.getValue().y), 0));
+            slot++;
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Returns the latest location of the vehicle, or null if there is no such vehicle.
+     */
+    public Point getLocation(String id) {
+        Integer slot = slots.get(id);
+        if (slot == null)
+            return null;
+        Version head = heads.get(slot);
+        stamp(head);
+        return unpack(head.location);
+    }
+
+    public void setLocation(String id, int x, int y) {
+        Integer slot = slots.get(id);
+        if (slot == null)
+            throw new IllegalArgumentException("invalid vehicle name: " + id);
+        Version v = new Version(pack(x, y), PENDING);
+        Version head;
+        do {
+            head = heads.get(slot);
+            stamp(head);
+            v.previous = head;
+        } while (!heads.compareAndSet(slot, head, v));
+        stamp(v);
+        prune(v);
+    }
+
+    /**
+     * Returns a consistent, immutable view of the whole fleet as of now, in constant time. The snapshot must be closed when it is
+     * no longer needed, so that the versions only it can see can be pruned.
+     */
+    public Snapshot snapshot() {
+        Snapshot s = new Snapshot(clock.get(), snapshotIds.incrementAndGet());
+        openSnapshots.add(s);
+        s.epoch = clock.get();
+        return s;
+    }
+
+    public Map<String, Point> getLocationsSnapShot() {
+        try (Snapshot s = snapshot()) {
+            return Collections.unmodifiableMap(new HashMap<String, Point>(s.getLocations()));
+        }
+    }
+
+    private void stamp(Version v) {
+        if (v.epoch == PENDING)
+            Version.EPOCH.compareAndSet(v, PENDING, clock.incrementAndGet());
+    }
+
+    private void prune(Version v) {
+        long bound = clock.get();
+        if (!openSnapshots.isEmpty()) {
+            try {
+                bound = Math.min(bound, openSnapshots.first().registeredEpoch);
+            } catch (NoSuchElementException e) {
+                // the last snapshot was closed since isEmpty()
+            }
+        }
+        for (Version w = v; w != null; w = w.previous) {
+            if (w.epoch <= bound) {
+                w.previous = null;
+                return;
+            }
+        }
+    }
+
+    private Version versionAt(int slot, long epoch) {
+        for (Version v = heads.get(slot); v != null; v = v.previous) {
+            stamp(v);
+            if (v.epoch <= epoch)
+                return v;
+        }
+        throw new IllegalStateException("version pruned while in use by a snapshot");
+    }
+
+    private static final class Version {
+        static final AtomicLongFieldUpdater<Version> EPOCH = AtomicLongFieldUpdater.newUpdater(Version.class, "epoch");
+
+        final long location;
+        volatile long epoch;
+        volatile Version previous;
+
+        Version(long location, long epoch) {
+            this.location = location;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * The fleet as of one instant; what it shows never changes. Reads through a snapshot are lock-free, and cost a walk down the vehicle's version chain,
+     * which is short unless the snapshot is old and the vehicle busy.
+     */
+    public final class Snapshot implements AutoCloseable, Comparable<Snapshot> {
+        private final long registeredEpoch;
+        private final long id;
+        private volatile long epoch;
+        private volatile boolean closed;
+        private final Map<String, Point> view = new SnapshotView();
+
+        private Snapshot(long registeredEpoch, long id) {
+            this.registeredEpoch = registeredEpoch;
+            this.id = id;
+        }
+
+        public Point getLocation(String id) {
+            Integer slot = slots.get(id);
+            return slot == null ? null : unpack(read(slot));
+        }
+
+        /**
+         * Returns an unmodifiable view of the snapshot's locations; it is only valid until the snapshot is closed.
+         */
+        public Map<String, Point> getLocations() {
+            return view;
+        }
+
+        public void close() {
+            closed = true;
+            openSnapshots.remove(this);
+        }
+
+        public int compareTo(Snapshot o) {
+            if (registeredEpoch != o.registeredEpoch)
+                return registeredEpoch < o.registeredEpoch ? -1 : 1;
+            return Long.compare(id, o.id);
+        }
+
+        private long read(int slot) {
+            if (closed)
+                throw new IllegalStateException("snapshot is closed");
+            return versionAt(slot, epoch).location;
+        }
+
+        private final class SnapshotView extends AbstractMap<String, Point> {
+            @Override
+            public Point get(Object key) {
+                Integer slot = slots.get(key);
+                return slot == null ? null : unpack(read(slot));
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return slots.containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+
+            @Override
+            public Set<Map.Entry<String, Point>> entrySet() {
+                return new AbstractSet<Map.Entry<String, Point>>() {
+                    public int size() {
+                        return ids.length;
+                    }
+
+                    public Iterator<Map.Entry<String, Point>> iterator() {
+                        return new Iterator<Map.Entry<String, Point>>() {
+                            private int slot;
+
+                            public boolean hasNext() {
+                                return slot < ids.length;
+                            }
+
+                            public Map.Entry<String, Point> next() {
+                                if (slot >= ids.length)
+                                    throw new NoSuchElementException();
+                                int s = slot++;
+                                return new SimpleImmutableEntry<String, Point>(ids[s], unpack(read(s)));
+                            }
+                        };
+                    }
+                };
+            }
+        }
+    }
+}
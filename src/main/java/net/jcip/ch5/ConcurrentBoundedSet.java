@@ -0,0 +1,174 @@
+/*
+ * ConcurrentBoundedSet.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link ConcurrentBoundedSet} is a bounded set like {@link BoundedHashSet} whose writers do not meet on a common lock. {@link
+ * BoundedHashSet} sends every add and remove through both its {@link java.util.concurrent.Semaphore} and a {@link
+ * java.util.Collections#synchronizedSet(Set)}, two objects every writer contends for. Here the elements are kept in a set backed
+ * by a {@link ConcurrentHashMap}, and the bound in permits spread over a power-of-two number of counters (stripes), each in its
+ * own cache line:
+ * <ul>
+ * <li>a thread takes a permit from the stripe picked by its id with a CAS, and only when that stripe is empty looks for one in
+ * the others, so threads on different stripes do not touch the same counter;</li>
+ * <li>a removal returns the permit to the stripe of the removing thread; permits therefore move between stripes, and stealing
+ * keeps them all usable;</li>
+ * <li>only a thread that finds no permit in any stripe takes the lock, and waits on its condition until a removal signals it.
+ * Removals only take the lock when a thread is waiting.</li>
+ * </ul>
+ * A thread announces that it is waiting before it looks for a permit a last time, and a removal returns its permit before it
+ * checks for waiting threads, so either the waiting thread finds the permit or the removal sees the waiting thread and signals
+ * it.
+ * <p>
+ * Like {@link BoundedHashSet}, an element that is already in the set is not added and does not use up a permit; unlike it, adding
+ * such an element returns false at once instead of waiting for a permit first. Also unlike it, null elements are not allowed: the
+ * {@link ConcurrentHashMap} behind the set throws {@link NullPointerException} where {@link BoundedHashSet} accepts them.
+ */
+@ThreadSafe
+public class ConcurrentBoundedSet<T> {
+    private static final int STRIDE = 16;
+
+    private final Set<T> set = ConcurrentHashMap.newKeySet();
+    private final AtomicIntegerArray permits;
+    private final int mask;
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    public ConcurrentBoundedSet(int bound) {
+        if (bound < 0)
+            throw new IllegalArgumentException("bound must not be negative");
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(bound, Runtime.getRuntime().availableProcessors() * 2)));
+        this.mask = stripes - 1;
+        this.permits = new AtomicIntegerArray(stripes * STRIDE);
+        for (int i = 0; i < stripes; i++)
+            permits.set(i * STRIDE, bound / stripes + (i < bound % stripes ? 1 : 0));
+    }
+
+    /**
+     * Adds {@code o}, waiting for room if the set is full. Returns false if {@code o} was already in the set.
+     */
+    public boolean add(T o) throws InterruptedException {
+        if (set.contains(o))
+            return false;
+        if (!tryAcquire())
+            acquire(0, false);
+        return addWithPermit(o);
+    }
+
+    /**
+     * Adds {@code o} if there is room, without waiting. Returns false if the set is full or {@code o} was already in it.
+     */
+    public boolean tryAdd(T o) {
+        if (set.contains(o) || !tryAcquire())
+            return false;
+        return addWithPermit(o);
+    }
+
+    /**
+     * Adds {@code o}, waiting at most {@code timeout} for room. Returns false if there was no room in time or {@code o} was
+     * already in the set.
+     */
+    public boolean offer(T o, long timeout, TimeUnit unit) throws InterruptedException {
+        if (set.contains(o))
+            return false;
+        if (!tryAcquire() && !acquire(unit.toNanos(timeout), true))
+            return false;
+        return addWithPermit(o);
+    }
+
+    public boolean remove(Object o) {
+        boolean wasRemoved = set.remove(o);
+        if (wasRemoved)
+            release();
+        return wasRemoved;
+    }
+
+    public boolean contains(Object o) {
+        return set.contains(o);
+    }
+
+    public int size() {
+        return set.size();
+    }
+
+    private boolean addWithPermit(T o) {
+        boolean wasAdded = false;
+        try {
+            wasAdded = set.add(o);
+            return wasAdded;
+        } finally {
+            if (!wasAdded)
+                release();
+        }
+    }
+
+    private int home() {
+        return (int) Thread.currentThread().getId() & mask;
+    }
+
+    private boolean tryAcquire() {
+        int home = home();
+        for (int i = 0; i <= mask; i++) {
+            int index = ((home + i) & mask) * STRIDE;
+            for (int n = permits.get(index); n > 0; n = permits.get(index)) {
+                if (permits.compareAndSet(index, n, n - 1))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void release() {
+        permits.incrementAndGet(home() * STRIDE);
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean acquire(long nanos, boolean timed) throws InterruptedException {
+        lock.lockInterruptibly();
+        waiters.incrementAndGet();
+        boolean acquired = false;
+        try {
+            while (!(acquired = tryAcquire())) {
+                if (!timed)
+                    notFull.await();
+                else if (nanos <= 0)
+                    return false;
+                else
+                    nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            waiters.decrementAndGet();
+            // a signal meant for this thread may have arrived as it gave up; pass it on to the next waiter
+            if (!acquired && waiters.get() > 0)
+                notFull.signal();
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * AsyncComputable.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The AsyncComputable<A,V> interface describes a function with input of type A whose result of type V is delivered later,
+ * through the returned {@link CompletableFuture}. Unlike {@link Computable}, the calling thread never waits for the result.
+ * @param <A> the input type
+ * @param <V> the result type
+ */
+public interface AsyncComputable<A, V> {
+    CompletableFuture<V> compute(A arg);
+}
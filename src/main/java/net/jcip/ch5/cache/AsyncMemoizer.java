@@ -0,0 +1,144 @@
+/*
+ * AsyncMemoizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link AsyncMemoizer} is the non-blocking counterpart of {@link FinalMemoizer}. {@link FinalMemoizer} runs the computation on
+ * the first caller's thread and parks every other caller in {@link java.util.concurrent.Future#get()}; here the cache holds
+ * {@link CompletableFuture}s, and {@link #compute(Object)} only ever looks up or installs one and returns, so callers compose on
+ * the result instead of waiting for it.
+ * <p>
+ * The value is still computed once per argument: the thread that wins the putIfAbsent race for an empty future starts the
+ * computation and every other caller gets the same future. A future that completes exceptionally or is cancelled is removed
+ * from the cache when it completes, so the next call starts again; so is the future of a computation that returned null
+ * instead of a future.
+ * <p>
+ * Each caller receives its own dependent future rather than the cached one, so a caller that cancels or completes the future it
+ * was given affects only itself, never the other callers or the cache.
+ */
+@ThreadSafe
+public class AsyncMemoizer<A, V> implements AsyncComputable<A, V> {
+    private final ConcurrentMap<A, CompletableFuture<V>> cache = new ConcurrentHashMap<A, CompletableFuture<V>>();
+    private final AsyncComputable<A, V> c;
+    private final CacheStats stats = new CacheStats();
+
+    public AsyncMemoizer(AsyncComputable<A, V> c) { this.c = c; }
+
+    /**
+     * Memoizes a blocking {@link Computable}, running each computation on {@code executor}.
+     */
+    public AsyncMemoizer(Computable<A, V> c, Executor executor) { this(asAsync(c, executor)); }
+
+    public CompletableFuture<V> compute(A arg) {
+        CompletableFuture<V> f = cache.get(arg);
+        if (f == null) {
+            CompletableFuture<V> promise = new CompletableFuture<V>();
+            f = cache.putIfAbsent(arg, promise);
+            if (f == null) {
+                f = promise;
+                stats.recordMiss();
+                start(arg, promise);
+            } else {
+                stats.recordHit();
+            }
+        } else {
+            stats.recordHit();
+        }
+        return f.thenApply(Function.<V>identity());
+    }
+
+    /**
+     * Returns the number of cached futures, including those that have not completed yet.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private void start(final A arg, final CompletableFuture<V> promise) {
+        stats.recordLoadStart();
+        final long start = System.nanoTime();
+        promise.whenComplete(new BiConsumer<V, Throwable>() {
+            public void accept(V value, Throwable failure) {
+                long nanos = System.nanoTime() - start;
+                if (failure == null) {
+                    stats.recordLoadSuccess(nanos);
+                } else {
+                    stats.recordLoadFailure(nanos);
+                    if (cache.remove(arg, promise))
+                        stats.recordRemoval(RemovalCause.FAILED);
+                }
+            }
+        });
+        CompletableFuture<V> result;
+        try {
+            result = c.compute(arg);
+        } catch (RuntimeException | Error e) {
+            promise.completeExceptionally(e);
+            return;
+        }
+        if (result == null) {
+            promise.completeExceptionally(new NullPointerException("computation returned no future for " + arg));
+            return;
+        }
+        result.whenComplete(new BiConsumer<V, Throwable>() {
+            public void accept(V value, Throwable failure) {
+                if (failure != null)
+                    promise.completeExceptionally(failure);
+                else
+                    promise.complete(value);
+            }
+        });
+    }
+
+    /**
+     * Adapts a blocking {@link Computable} to an {@link AsyncComputable} that runs each computation on {@code executor}. A
+     * rejected submission or an interrupted computation completes the future exceptionally.
+     */
+    public static <A, V> AsyncComputable<A, V> asAsync(final Computable<A, V> c, final Executor executor) {
+        return new AsyncComputable<A, V>() {
+            public CompletableFuture<V> compute(final A arg) {
+                final CompletableFuture<V> result = new CompletableFuture<V>();
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            if (result.isDone())
+                                return;
+                            try {
+                                result.complete(c.compute(arg));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                result.completeExceptionally(e);
+                            } catch (RuntimeException | Error e) {
+                                result.completeExceptionally(e);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+                return result;
+            }
+        };
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * BatchComputable.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The BatchComputable<A,V> interface describes a {@link Computable} that can also compute many results in one call, for
+ * backends where a bulk query is much cheaper than the same number of single ones.
+ * @param <A> the input type
+ * @param <V> the result type
+ */
+public interface BatchComputable<A, V> extends Computable<A, V> {
+    /**
+     * Computes the results for {@code args}. An argument missing from the returned map is treated as a failure to compute it.
+     */
+    Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException;
+}
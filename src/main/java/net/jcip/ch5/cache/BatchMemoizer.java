@@ -0,0 +1,220 @@
+/*
+ * BatchMemoizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import static net.jcip.ch5.cache.FinalMemoizer.launderThrowable;
+
+/**
+ * {@link BatchMemoizer} memoizes a {@link BatchComputable} and adds {@link #computeAll(Collection)}, which looks up many
+ * arguments at once and loads all the missing ones with a single {@link BatchComputable#computeAll(Collection)} call.
+ * <p>
+ * As in {@link FinalMemoizer}, every argument is computed once: a caller claims each missing argument by installing a future with
+ * putIfAbsent, and arguments another caller has already claimed are simply waited for. Only the claimed arguments go into the
+ * batch. A future that fails is removed when it completes, so a later call claims the argument again.
+ * <p>
+ * Without a batching window, each {@link #computeAll(Collection)} call loads its own claimed arguments in the calling thread.
+ * With one, claimed arguments are queued instead, and the queue is loaded as a single batch on the scheduler once the window has
+ * passed since the first argument was queued, or as soon as it holds {@code maxBatchSize} arguments. Concurrent callers, each
+ * asking for a few arguments, thereby share one bulk load, in the manner of a data loader. The load runs on a scheduler thread, so
+ * the scheduler needs as many threads as loads that should be able to run at the same time.
+ */
+@ThreadSafe
+public class BatchMemoizer<A, V> implements Computable<A, V> {
+    private final ConcurrentMap<A, CompletableFuture<V>> cache = new ConcurrentHashMap<A, CompletableFuture<V>>();
+    private final BatchComputable<A, V> c;
+    private final ScheduledExecutorService scheduler;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final CacheStats stats = new CacheStats();
+    @GuardedBy("this") private Map<A, CompletableFuture<V>> pending = new LinkedHashMap<A, CompletableFuture<V>>();
+
+    public BatchMemoizer(BatchComputable<A, V> c) {
+        this.c = c;
+        this.scheduler = null;
+        this.windowNanos = 0;
+        this.maxBatchSize = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param window       how long claimed arguments wait for others to join their batch
+     * @param maxBatchSize the number of queued arguments that triggers a load before the window has passed
+     * @param scheduler    the scheduler that runs the loads
+     */
+    public BatchMemoizer(BatchComputable<A, V> c, long window, TimeUnit unit, int maxBatchSize,
+                    ScheduledExecutorService scheduler) {
+        if (window <= 0 || maxBatchSize <= 0)
+            throw new IllegalArgumentException("window and maxBatchSize must be positive");
+        this.c = c;
+        this.scheduler = scheduler;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public V compute(A arg) throws InterruptedException {
+        return computeAll(Collections.singleton(arg)).get(arg);
+    }
+
+    /**
+     * Returns the results for {@code args}, in their iteration order, loading the ones not already cached or being computed.
+     */
+    public Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException {
+        Map<A, CompletableFuture<V>> futures = new LinkedHashMap<A, CompletableFuture<V>>();
+        Map<A, CompletableFuture<V>> claimed = new LinkedHashMap<A, CompletableFuture<V>>();
+        for (A arg : args) {
+            if (futures.containsKey(arg))
+                continue;
+            CompletableFuture<V> f = cache.get(arg);
+            if (f == null) {
+                CompletableFuture<V> claim = newClaim(arg);
+                f = cache.putIfAbsent(arg, claim);
+                if (f == null) {
+                    f = claim;
+                    claimed.put(arg, claim);
+                    stats.recordMiss();
+                } else {
+                    stats.recordHit();
+                }
+            } else {
+                stats.recordHit();
+            }
+            futures.put(arg, f);
+        }
+        if (!claimed.isEmpty()) {
+            if (scheduler == null)
+                load(claimed);
+            else
+                enqueue(claimed);
+        }
+        Map<A, V> result = new LinkedHashMap<A, V>();
+        try {
+            for (Map.Entry<A, CompletableFuture<V>> e : futures.entrySet())
+                result.put(e.getKey(), e.getValue().get());
+            return result;
+        } catch (ExecutionException e) {
+            throw launderThrowable(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of cached futures, including those still being loaded.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the statistics of this memoizer. Hits and misses are counted per argument, loads per batch.
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private CompletableFuture<V> newClaim(final A arg) {
+        final CompletableFuture<V> f = new CompletableFuture<V>();
+        f.whenComplete(new BiConsumer<V, Throwable>() {
+            public void accept(V value, Throwable failure) {
+                if (failure != null && cache.remove(arg, f))
+                    stats.recordRemoval(RemovalCause.FAILED);
+            }
+        });
+        return f;
+    }
+
+    private void enqueue(Map<A, CompletableFuture<V>> claimed) {
+        Map<A, CompletableFuture<V>> full = null;
+        boolean first;
+        synchronized (this) {
+            first = pending.isEmpty();
+            pending.putAll(claimed);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new LinkedHashMap<A, CompletableFuture<V>>();
+            }
+        }
+        if (full != null) {
+            load(full);
+        } else if (first) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        loadPending();
+                    }
+                }, windowNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                loadPending();
+            }
+        }
+    }
+
+    private void loadPending() {
+        Map<A, CompletableFuture<V>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<A, CompletableFuture<V>>();
+        }
+        if (!batch.isEmpty())
+            load(batch);
+    }
+
+    private void load(Map<A, CompletableFuture<V>> batch) {
+        stats.recordLoadStart();
+        long start = System.nanoTime();
+        boolean loaded = false;
+        try {
+            Map<A, V> values = c.computeAll(Collections.unmodifiableSet(batch.keySet()));
+            List<A> missing = new ArrayList<A>();
+            for (Map.Entry<A, CompletableFuture<V>> e : batch.entrySet()) {
+                V value = values.get(e.getKey());
+                if (value == null && !values.containsKey(e.getKey()))
+                    missing.add(e.getKey());
+                else
+                    e.getValue().complete(value);
+            }
+            if (!missing.isEmpty())
+                failAll(batch, new IllegalStateException("batch returned no value for " + missing));
+            loaded = true;
+        } catch (InterruptedException e) {
+            failAll(batch, e);
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            failAll(batch, e);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (loaded)
+                stats.recordLoadSuccess(nanos);
+            else
+                stats.recordLoadFailure(nanos);
+        }
+    }
+
+    private static <A, V> void failAll(Map<A, CompletableFuture<V>> batch, Throwable t) {
+        for (CompletableFuture<V> f : batch.values())
+            f.completeExceptionally(t);
+    }
+}
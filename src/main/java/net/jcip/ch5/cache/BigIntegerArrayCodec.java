@@ -0,0 +1,54 @@
+/*
+ * BigIntegerArrayCodec.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import net.jcip.annotations.Immutable;
+
+/**
+ * {@link BigIntegerArrayCodec} encodes a {@code BigInteger[]}, such as a list of factors, as its length followed by each number
+ * as a length-prefixed {@link BigInteger#toByteArray()}.
+ */
+@Immutable
+public final class BigIntegerArrayCodec implements Codec<BigInteger[]> {
+    public static final BigIntegerArrayCodec INSTANCE = new BigIntegerArrayCodec();
+
+    private BigIntegerArrayCodec() {
+    }
+
+    public int encodedSize(BigInteger[] value) {
+        int size = 4;
+        for (BigInteger n : value)
+            size += 4 + n.bitLength() / 8 + 1;
+        return size;
+    }
+
+    public void encode(BigInteger[] value, ByteBuffer buffer) {
+        buffer.putInt(value.length);
+        for (BigInteger n : value) {
+            byte[] bytes = n.toByteArray();
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    public BigInteger[] decode(ByteBuffer buffer) {
+        BigInteger[] value = new BigInteger[buffer.getInt()];
+        for (int i = 0; i < value.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            value[i] = new BigInteger(bytes);
+        }
+        return value;
+    }
+}
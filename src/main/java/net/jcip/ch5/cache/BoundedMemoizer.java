@@ -0,0 +1,277 @@
+/*
+ * BoundedMemoizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import net.jcip.annotations.ThreadSafe;
+
+import static net.jcip.ch5.cache.FinalMemoizer.launderThrowable;
+
+/**
+ * {@link FinalMemoizer} never forgets anything, which is a memory leak for any {@link Computable} whose set of arguments is not
+ * small and fixed. {@link BoundedMemoizer} keeps its putIfAbsent/{@link FutureTask} structure, and with it the guarantee that a
+ * value is computed only once no matter how many threads ask for it at the same time, but bounds what it keeps:
+ * <ul>
+ * <li><b>size or weight:</b> every computed entry is charged a weight (1 by default, or whatever a {@link Weigher} says), and
+ * when the total goes over {@code maximumWeight}, entries are evicted with the CLOCK approximation of LRU: entries are queued in
+ * the order they were computed, and the evicting thread gives every entry that was read since it was last examined a second
+ * chance before removing the first one that was not;</li>
+ * <li><b>expire after write:</b> an entry older than {@code expireAfterWrite} is treated as absent and recomputed;</li>
+ * <li><b>expire after access:</b> an entry not read for {@code expireAfterAccess} is treated as absent and recomputed.</li>
+ * </ul>
+ * Entries still being computed are never evicted or expired, and are not charged until their value is known. Failed and cancelled
+ * computations are removed, so the next caller retries.
+ * <p>
+ * Reads take no locks. Eviction runs in the thread whose insertion pushed the total over the bound, under a lock taken with
+ * tryLock, so no thread ever waits for another one to evict; the bound may therefore be exceeded briefly while an eviction is in
+ * progress. Whether an entry's weight has been added to the total, and whether it has been taken off again, is decided by a CAS on
+ * the entry's state, so an entry removed while it is being charged is never counted twice or left counted.
+ */
+@ThreadSafe
+public class BoundedMemoizer<A, V> implements Computable<A, V> {
+    private static final int COMPUTING = 0;
+    private static final int CHARGED = 1;
+    private static final int REMOVED = 2;
+
+    private final ConcurrentMap<A, Node<A, V>> cache = new ConcurrentHashMap<A, Node<A, V>>();
+    private final Queue<Node<A, V>> clock = new ConcurrentLinkedQueue<Node<A, V>>();
+    private final AtomicLong weight = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final CacheStats stats = new CacheStats();
+    private final Computable<A, V> c;
+    private final long maximumWeight;
+    private final Weigher<? super A, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+
+    public BoundedMemoizer(Computable<A, V> c, long maximumSize) {
+        this(c, maximumSize, null, 0, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param maximumWeight     the total weight above which entries are evicted
+     * @param weigher           the weigher of entries, or null to count every entry as 1; a negative weight fails the call that
+     *                          computed the entry with an {@link IllegalArgumentException}, and the entry is not kept; nor is
+     *                          it if the weigher throws, which fails that call with the same exception
+     * @param expireAfterWrite  how long an entry is kept after it was computed, or 0 to keep it until evicted
+     * @param expireAfterAccess how long an entry is kept after it was last read, or 0 to keep it until evicted
+     */
+    public BoundedMemoizer(Computable<A, V> c, long maximumWeight, Weigher<? super A, ? super V> weigher,
+                    long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+        if (maximumWeight < 0 || expireAfterWrite < 0 || expireAfterAccess < 0)
+            throw new IllegalArgumentException("bounds must not be negative");
+        this.c = c;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.expireAfterWriteNanos = expireAfterWrite == 0 ? Long.MAX_VALUE : unit.toNanos(expireAfterWrite);
+        this.expireAfterAccessNanos = expireAfterAccess == 0 ? Long.MAX_VALUE : unit.toNanos(expireAfterAccess);
+    }
+
+    public V compute(final A arg) throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            Node<A, V> n = cache.get(arg);
+            if (n != null && isExpired(n, now)) {
+                remove(n, RemovalCause.EXPIRED);
+                n = null;
+            }
+            if (n == null) {
+                Callable<V> eval = new Callable<V>() {
+                    public V call() throws InterruptedException {
+                        return stats.recordLoad(c, arg);
+                    }
+                };
+                Node<A, V> node = new Node<A, V>(arg, new FutureTask<V>(eval), now);
+                n = cache.putIfAbsent(arg, node);
+                if (n == null) {
+                    n = node;
+                    stats.recordMiss();
+                    node.future.run();
+                    charge(node);
+                } else {
+                    stats.recordHit();
+                }
+            } else {
+                stats.recordHit();
+            }
+            try {
+                V value = n.future.get();
+                if (expireAfterAccessNanos != Long.MAX_VALUE)
+                    touch(n);
+                if (!n.referenced)
+                    n.referenced = true;
+                return value;
+            } catch (CancellationException e) {
+                remove(n, RemovalCause.FAILED);
+            } catch (ExecutionException e) {
+                remove(n, RemovalCause.FAILED);
+                throw launderThrowable(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries, including those still being computed.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the total weight of the computed entries.
+     */
+    public long weight() {
+        return weight.get();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Removes expired entries now rather than when they are next read or reach the head of the eviction queue.
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        for (Node<A, V> n : cache.values()) {
+            if (isExpired(n, now))
+                remove(n, RemovalCause.EXPIRED);
+        }
+    }
+
+    /**
+     * Called by the evicting thread just before an unexpired entry is evicted to make room, while it can still be read. Does
+     * nothing by default; {@link TieredMemoizer} uses it to move the value to its off-heap tier.
+     */
+    protected void onEviction(A key, V value) {
+    }
+
+    private boolean isExpired(Node<A, V> n, long now) {
+        if (n.state.get() != CHARGED)
+            return false;
+        return now - n.writeTime >= expireAfterWriteNanos || now - n.accessTime >= expireAfterAccessNanos;
+    }
+
+    /**
+     * Moves the access time forward to now, never back: the value may have taken longer to compute than a concurrent reader took
+     * to read it.
+     */
+    private static void touch(Node<?, ?> n) {
+        long now = System.nanoTime();
+        for (long t = n.accessTime; now - t > 0; t = n.accessTime) {
+            if (Node.ACCESS_TIME.compareAndSet(n, t, now))
+                return;
+        }
+    }
+
+    private V valueOf(Node<A, V> n) {
+        try {
+            return n.future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void charge(Node<A, V> n) {
+        V value;
+        try {
+            value = n.future.get();
+        } catch (Exception e) {
+            return;
+        }
+        int w;
+        try {
+            w = weigher == null ? 1 : weigher.weigh(n.key, value);
+        } catch (RuntimeException | Error e) {
+            remove(n, RemovalCause.FAILED);
+            throw e;
+        }
+        if (w < 0) {
+            remove(n, RemovalCause.FAILED);
+            throw new IllegalArgumentException("negative weight " + w + " for " + n.key);
+        }
+        n.weight = w;
+        n.writeTime = n.accessTime = System.nanoTime();
+        if (!n.state.compareAndSet(COMPUTING, CHARGED))
+            return;
+        clock.offer(n);
+        if (weight.addAndGet(n.weight) > maximumWeight)
+            evict();
+    }
+
+    private void remove(Node<A, V> n, RemovalCause cause) {
+        if (!cache.remove(n.key, n))
+            return;
+        stats.recordRemoval(cause);
+        if (n.state.getAndSet(REMOVED) == CHARGED)
+            weight.addAndGet(-n.weight);
+    }
+
+    private void evict() {
+        // re-check after unlocking: insertions that failed tryLock while the lock was being released were not evicted for
+        while (weight.get() > maximumWeight && evictionLock.tryLock()) {
+            try {
+                long now = System.nanoTime();
+                while (weight.get() > maximumWeight) {
+                    Node<A, V> n = clock.poll();
+                    if (n == null)
+                        return;
+                    if (n.state.get() != CHARGED)
+                        continue;
+                    if (n.referenced && !isExpired(n, now)) {
+                        n.referenced = false;
+                        clock.offer(n);
+                    } else if (isExpired(n, now)) {
+                        remove(n, RemovalCause.EXPIRED);
+                    } else {
+                        onEviction(n.key, valueOf(n));
+                        remove(n, RemovalCause.SIZE);
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private static final class Node<A, V> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicLongFieldUpdater<Node> ACCESS_TIME = AtomicLongFieldUpdater.newUpdater(Node.class, "accessTime");
+
+        final A key;
+        final FutureTask<V> future;
+        final AtomicInteger state = new AtomicInteger(COMPUTING);
+        volatile int weight;
+        volatile long writeTime;
+        volatile long accessTime;
+        volatile boolean referenced;
+
+        Node(A key, FutureTask<V> future, long now) {
+            this.key = key;
+            this.future = future;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * CacheStats.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+import net.jcip.util.LatencyHistogram;
+
+/**
+ * {@link CacheStats} counts what a memoizer does: hits and misses, the loads (calls to the underlying {@link Computable}) that
+ * succeeded or failed and how long they took, the entries it dropped by {@link RemovalCause}, and the loads in flight right now.
+ * <p>
+ * As in {@link net.jcip.ch2.FactorizerMetrics}, every counter is a {@link LongAdder} and load times go into a {@link
+ * LatencyHistogram}, so recording takes no lock, does not allocate, and does not make all callers contend on one cache line. The
+ * counters are read independently of each other, so derived figures such as {@link #getHitRate()} are approximate while the
+ * memoizer is in use.
+ * <p>
+ * A hit is a call that found an entry, including one whose value was still being computed by another caller; a miss is a call
+ * that started a load.
+ */
+@ThreadSafe
+public class CacheStats {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder[] removals = new LongAdder[RemovalCause.values().length];
+    private final LatencyHistogram loadTime = new LatencyHistogram();
+
+    public CacheStats() {
+        for (int i = 0; i < removals.length; i++)
+            removals[i] = new LongAdder();
+    }
+
+    public void recordHit() { hits.increment(); }
+
+    public void recordMiss() { misses.increment(); }
+
+    /**
+     * Records that a load has started; it must be followed by {@link #recordLoadSuccess(long)} or {@link
+     * #recordLoadFailure(long)} when the load ends.
+     */
+    public void recordLoadStart() { inFlight.increment(); }
+
+    public void recordLoadSuccess(long loadNanos) {
+        inFlight.decrement();
+        loadSuccesses.increment();
+        totalLoadNanos.add(loadNanos);
+        loadTime.record(loadNanos);
+    }
+
+    public void recordLoadFailure(long loadNanos) {
+        inFlight.decrement();
+        loadFailures.increment();
+        totalLoadNanos.add(loadNanos);
+        loadTime.record(loadNanos);
+    }
+
+    /**
+     * Calls {@code c.compute(arg)}, recording the load, its outcome and its duration.
+     */
+    public <A, V> V recordLoad(Computable<A, V> c, A arg) throws InterruptedException {
+        recordLoadStart();
+        long start = System.nanoTime();
+        boolean loaded = false;
+        try {
+            V value = c.compute(arg);
+            loaded = true;
+            return value;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (loaded)
+                recordLoadSuccess(nanos);
+            else
+                recordLoadFailure(nanos);
+        }
+    }
+
+    public void recordRemoval(RemovalCause cause) { removals[cause.ordinal()].increment(); }
+
+    public long getHitCount() { return hits.sum(); }
+
+    public long getMissCount() { return misses.sum(); }
+
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long requests = hits + misses.sum();
+        return requests == 0 ? 1.0 : (double) hits / (double) requests;
+    }
+
+    public long getLoadSuccessCount() { return loadSuccesses.sum(); }
+
+    public long getLoadFailureCount() { return loadFailures.sum(); }
+
+    public long getLoadCount() { return loadSuccesses.sum() + loadFailures.sum(); }
+
+    public long getTotalLoadTime(TimeUnit unit) { return unit.convert(totalLoadNanos.sum(), TimeUnit.NANOSECONDS); }
+
+    /**
+     * Returns the distribution of load times, from which percentiles can be read.
+     */
+    public LatencyHistogram getLoadTime() { return loadTime; }
+
+    public long getRemovalCount(RemovalCause cause) { return removals[cause.ordinal()].sum(); }
+
+    /**
+     * Returns the number of loads that have started and not yet ended.
+     */
+    public long getInFlightCount() { return Math.max(0, inFlight.sum()); }
+
+    @Override
+    public String toString() {
+        return "CacheStats[hits=" + getHitCount() + ", misses=" + getMissCount() + ", loadSuccesses=" + getLoadSuccessCount()
+                        + ", loadFailures=" + getLoadFailureCount() + ", loadP50Nanos=" + loadTime.getValueAtPercentile(50)
+                        + ", loadP99Nanos=" + loadTime.getValueAtPercentile(99) + ", sizeEvictions="
+                        + getRemovalCount(RemovalCause.SIZE) + ", expirations=" + getRemovalCount(RemovalCause.EXPIRED)
+                        + ", failures=" + getRemovalCount(RemovalCause.FAILED) + ", inFlight=" + getInFlightCount() + "]";
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Codec.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Codec<V> interface describes how {@link TieredMemoizer} serializes values of type V into its off-heap tier.
+ * @param <V> the value type
+ */
+public interface Codec<V> {
+    /**
+     * Returns the exact number of bytes {@link #encode(Object, ByteBuffer)} writes for {@code value}.
+     */
+    int encodedSize(V value);
+
+    /**
+     * Writes {@code value} at the buffer's position, advancing it by {@link #encodedSize(Object)} bytes.
+     */
+    void encode(V value, ByteBuffer buffer);
+
+    /**
+     * Reads a value written by {@link #encode(Object, ByteBuffer)} from the buffer's position.
+     */
+    V decode(ByteBuffer buffer);
+}
@@ -0,0 +1,87 @@
+/*
+ * FailurePolicy.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import net.jcip.annotations.Immutable;
+
+/**
+ * {@link FailurePolicy} tells {@link FinalMemoizer} what to do when a computation fails:
+ * <ul>
+ * <li>a failure the {@code retryable} predicate accepts is retried in the computing thread, up to {@code maxRetries} times,
+ * sleeping {@code initialBackoff}, then twice that, and so on up to {@code maxBackoff} between attempts; callers waiting for the
+ * same argument keep waiting for the outcome of the retries rather than starting their own;</li>
+ * <li>a failure that is not retried, or that remains after the last retry, is cached for {@code negativeTtl}, so that callers
+ * asking for the same argument in the meantime get the same exception at once instead of all hammering a failing resource, and
+ * is dropped afterwards, so the next caller computes again.</li>
+ * </ul>
+ * {@link #DO_NOT_CACHE} neither retries nor caches failures.
+ */
+@Immutable
+public final class FailurePolicy {
+    public static final FailurePolicy DO_NOT_CACHE = new FailurePolicy(0, TimeUnit.NANOSECONDS);
+
+    private final long negativeTtlNanos;
+    private final int maxRetries;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Predicate<? super Throwable> retryable;
+
+    /**
+     * Creates a policy that caches failures for {@code negativeTtl} and never retries.
+     */
+    public FailurePolicy(long negativeTtl, TimeUnit unit) {
+        this(negativeTtl, 0, 0, 0, unit, null);
+    }
+
+    /**
+     * @param negativeTtl    how long a failure is cached, or 0 to drop it at once
+     * @param maxRetries     how many times a retryable failure is retried
+     * @param initialBackoff the delay before the first retry
+     * @param maxBackoff     the longest delay between retries
+     * @param retryable      which failures are retried, or null for none
+     */
+    public FailurePolicy(long negativeTtl, int maxRetries, long initialBackoff, long maxBackoff, TimeUnit unit,
+                    Predicate<? super Throwable> retryable) {
+        if (negativeTtl < 0 || maxRetries < 0 || initialBackoff < 0)
+            throw new IllegalArgumentException("negative TTL, retries and initial backoff must not be negative");
+        if (maxBackoff < initialBackoff)
+            throw new IllegalArgumentException("maxBackoff " + maxBackoff + " must not be less than initialBackoff "
+                            + initialBackoff);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.maxRetries = maxRetries;
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+        this.retryable = retryable;
+    }
+
+    public long getNegativeTtlNanos() {
+        return negativeTtlNanos;
+    }
+
+    /**
+     * Returns whether {@code t}, thrown by the computation after {@code retries} earlier retries, should be retried.
+     */
+    public boolean isRetryable(Throwable t, int retries) {
+        return retries < maxRetries && retryable != null && retryable.test(t);
+    }
+
+    /**
+     * Returns how long to wait before retry number {@code retries}, counting from 0.
+     */
+    public long getBackoffNanos(int retries) {
+        if (retries >= Long.numberOfLeadingZeros(initialBackoffNanos) - 1)
+            return maxBackoffNanos;
+        return Math.min(maxBackoffNanos, initialBackoffNanos << retries);
+    }
+}
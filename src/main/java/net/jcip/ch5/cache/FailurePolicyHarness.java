@@ -0,0 +1,167 @@
+/*
+ * FailurePolicyHarness.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import net.jcip.ch5.TestHarness;
+
+/**
+ * {@link FailurePolicyHarness} checks how {@link FinalMemoizer} handles failures under a {@link FailurePolicy} when many threads
+ * ask for the same argument at once, using {@link TestHarness} to start them together:
+ * <ul>
+ * <li>a failure is computed once and cached: every thread gets it, and none computes again until the negative TTL expires;</li>
+ * <li>once the TTL has expired, the next call computes again, and an expired failure nobody asks for is dropped by the next call
+ * that computes anything;</li>
+ * <li>retryable failures are retried with backoff while the other threads wait for the outcome, and give up after
+ * {@code maxRetries};</li>
+ * <li>failures the policy does not accept are not retried.</li>
+ * </ul>
+ * Run it with {@code java net.jcip.ch5.cache.FailurePolicyHarness}; it throws {@link AssertionError} at the first check that
+ * fails.
+ */
+public class FailurePolicyHarness {
+    private static final int THREADS = 16;
+    private static final long TTL_MILLIS = 200;
+    private static final long BACKOFF_MILLIS = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        failuresAreCachedAndExpire();
+        expiredFailuresAreDroppedByLaterComputations();
+        retryableFailuresAreRetriedWithBackoff();
+        retriesGiveUp();
+        otherFailuresAreNotRetried();
+        System.out.println("all checks passed");
+    }
+
+    private static void failuresAreCachedAndExpire() throws InterruptedException {
+        Failing failing = new Failing(Integer.MAX_VALUE);
+        FinalMemoizer<Integer, Integer> m = new FinalMemoizer<Integer, Integer>(failing,
+                        new FailurePolicy(TTL_MILLIS, TimeUnit.MILLISECONDS));
+        int failed = callConcurrently(m, 1, 10);
+        check(failed == THREADS * 10, "every call fails, got " + failed + " failures");
+        check(failing.calls.get() == 1, "a cached failure is computed once, computed " + failing.calls.get() + " times");
+        Thread.sleep(TTL_MILLIS + 50);
+        callConcurrently(m, 1, 1);
+        check(failing.calls.get() == 2, "an expired failure is computed again, computed " + failing.calls.get() + " times");
+        System.out.println("failures are cached and expire: ok");
+    }
+
+    private static void expiredFailuresAreDroppedByLaterComputations() throws InterruptedException {
+        FinalMemoizer<Integer, Integer> m = new FinalMemoizer<Integer, Integer>(new Failing(1),
+                        new FailurePolicy(TTL_MILLIS, TimeUnit.MILLISECONDS));
+        callConcurrently(m, 1, 1);
+        check(m.size() == 1, "the failure is cached");
+        Thread.sleep(TTL_MILLIS + 50);
+        m.compute(2);
+        check(m.size() == 1, "the expired failure of 1 is dropped when 2 is computed, size " + m.size());
+        check(m.getStats().getRemovalCount(RemovalCause.EXPIRED) == 1, "the drop is counted as an expiration");
+        System.out.println("expired failures are dropped by later computations: ok");
+    }
+
+    private static void retryableFailuresAreRetriedWithBackoff() throws InterruptedException {
+        Failing failing = new Failing(2);
+        FinalMemoizer<Integer, Integer> m = new FinalMemoizer<Integer, Integer>(failing, retrying(3));
+        long start = System.nanoTime();
+        int failed = callConcurrently(m, 1, 1);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        check(failed == 0, "every thread gets the value of the successful retry, " + failed + " failed");
+        check(failing.calls.get() == 3, "two failures and one success, computed " + failing.calls.get() + " times");
+        check(elapsedMillis >= 3 * BACKOFF_MILLIS, "backoff of 20ms then 40ms, took " + elapsedMillis + "ms");
+        System.out.println("retryable failures are retried with backoff: ok");
+    }
+
+    private static void retriesGiveUp() throws InterruptedException {
+        Failing failing = new Failing(Integer.MAX_VALUE);
+        FinalMemoizer<Integer, Integer> m = new FinalMemoizer<Integer, Integer>(failing, retrying(2));
+        int failed = callConcurrently(m, 1, 1);
+        check(failed == THREADS, "every thread gets the last failure, " + failed + " failed");
+        check(failing.calls.get() == 3, "one call and two retries, computed " + failing.calls.get() + " times");
+        System.out.println("retries give up: ok");
+    }
+
+    private static void otherFailuresAreNotRetried() throws InterruptedException {
+        Failing failing = new Failing(Integer.MAX_VALUE);
+        FailurePolicy policy = new FailurePolicy(TTL_MILLIS, 3, BACKOFF_MILLIS, BACKOFF_MILLIS, TimeUnit.MILLISECONDS,
+                        new Predicate<Throwable>() {
+                            public boolean test(Throwable t) {
+                                return t instanceof UnsupportedOperationException;
+                            }
+                        });
+        FinalMemoizer<Integer, Integer> m = new FinalMemoizer<Integer, Integer>(failing, policy);
+        callConcurrently(m, 1, 1);
+        check(failing.calls.get() == 1, "a failure the policy does not accept is not retried");
+        System.out.println("other failures are not retried: ok");
+    }
+
+    private static FailurePolicy retrying(int maxRetries) {
+        return new FailurePolicy(TTL_MILLIS, maxRetries, BACKOFF_MILLIS, 4 * BACKOFF_MILLIS, TimeUnit.MILLISECONDS,
+                        new Predicate<Throwable>() {
+                            public boolean test(Throwable t) {
+                                return t instanceof IllegalStateException;
+                            }
+                        });
+    }
+
+    /**
+     * Calls {@code m.compute(arg)} {@code times} times in each of {@link #THREADS} threads and returns how many calls failed with
+     * the computation's exception. Any other outcome fails the check.
+     */
+    private static int callConcurrently(final FinalMemoizer<Integer, Integer> m, final int arg, final int times)
+                    throws InterruptedException {
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicReference<Throwable> unexpected = new AtomicReference<Throwable>();
+        new TestHarness().timeTasks(THREADS, new Runnable() {
+            public void run() {
+                for (int i = 0; i < times; i++) {
+                    try {
+                        Integer value = m.compute(arg);
+                        if (value != arg)
+                            unexpected.compareAndSet(null, new AssertionError("wrong value " + value));
+                    } catch (IllegalStateException e) {
+                        failed.incrementAndGet();
+                    } catch (Throwable t) {
+                        unexpected.compareAndSet(null, t);
+                    }
+                }
+            }
+        });
+        if (unexpected.get() != null)
+            throw new AssertionError("unexpected outcome", unexpected.get());
+        return failed.get();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    /**
+     * Fails with {@link IllegalStateException} the first {@code failures} times it is called, then returns its argument.
+     */
+    private static final class Failing implements Computable<Integer, Integer> {
+        final AtomicInteger calls = new AtomicInteger();
+        private final int failures;
+
+        Failing(int failures) {
+            this.failures = failures;
+        }
+
+        public Integer compute(Integer arg) {
+            if (calls.incrementAndGet() <= failures)
+                throw new IllegalStateException("failure " + calls.get());
+            return arg;
+        }
+    }
+}
@@ -11,42 +11,146 @@
  */
 package net.jcip.ch5.cache;
 
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * {@link FinalMemoizer} computes each value once, however many threads ask for it at the same time: the first caller installs a
+ * {@link FutureTask} with putIfAbsent and runs it, and everyone else waits on that task.
+ * <p>
+ * What happens when the computation fails is up to its {@link FailurePolicy}: retryable failures are retried with exponential
+ * backoff before anyone sees them, and a final failure is cached for the policy's negative TTL and then dropped, so that a
+ * transient failure does not poison the argument forever. Cached failures are queued in the order they happened, which with a
+ * single TTL is also the order they expire in, and every call that starts a computation first drops the expired failures at the
+ * head of that queue; so a failed argument that nobody asks for again does not stay in memory as long as the memoizer is used.
+ * {@link #cleanUp()} drops them without computing anything. The default policy, {@link FailurePolicy#DO_NOT_CACHE}, drops a
+ * failure as soon as it is reported.
+ */
 public class FinalMemoizer<A, V> implements Computable<A, V> {
     private final ConcurrentMap<A, Future<V>> cache
                     = new ConcurrentHashMap<A, Future<V>>();
+    private final Queue<Task<A, V>> failures = new ConcurrentLinkedQueue<Task<A, V>>();
     private final Computable<A, V> c;
-    public FinalMemoizer(Computable<A, V> c) { this.c = c; }
+    private final FailurePolicy failurePolicy;
+    private final CacheStats stats = new CacheStats();
+    public FinalMemoizer(Computable<A, V> c) { this(c, FailurePolicy.DO_NOT_CACHE); }
+    public FinalMemoizer(Computable<A, V> c, FailurePolicy failurePolicy) {
+        this.c = c;
+        this.failurePolicy = failurePolicy;
+    }
     public V compute(final A arg) throws InterruptedException {
         while (true) {
             Future<V> f = cache.get(arg);
             if (f == null) {
+                expireFailures(System.nanoTime());
                 Callable<V> eval = new Callable<V>() {
                     public V call() throws InterruptedException {
-                        return c.compute(arg);
+                        for (int retries = 0; ; retries++) {
+                            try {
+                                return stats.recordLoad(c, arg);
+                            } catch (RuntimeException | Error e) {
+                                if (!failurePolicy.isRetryable(e, retries))
+                                    throw e;
+                            }
+                            TimeUnit.NANOSECONDS.sleep(failurePolicy.getBackoffNanos(retries));
+                        }
                     }
                 };
-                FutureTask<V> ft = new FutureTask<V>(eval);
+                Task<A, V> ft = new Task<A, V>(arg, eval);
                 f = cache.putIfAbsent(arg, ft);
-                if (f == null) { f = ft; ft.run(); }
+                if (f == null) {
+                    f = ft;
+                    stats.recordMiss();
+                    ft.run();
+                    if (ft.failed && failurePolicy.getNegativeTtlNanos() != 0)
+                        failures.offer(ft);
+                } else {
+                    stats.recordHit();
+                }
+            } else {
+                stats.recordHit();
             }
             try {
                 return f.get();
             } catch (CancellationException e) {
-                cache.remove(arg, f);
+                if (cache.remove(arg, f))
+                    stats.recordRemoval(RemovalCause.FAILED);
             } catch (ExecutionException e) {
+                if (isExpiredFailure(f, System.nanoTime())) {
+                    boolean cached = failurePolicy.getNegativeTtlNanos() != 0;
+                    if (cache.remove(arg, f))
+                        stats.recordRemoval(cached ? RemovalCause.EXPIRED : RemovalCause.FAILED);
+                    if (cached)
+                        continue;
+                }
                 throw launderThrowable(e.getCause());
             }
         }
     }
 
+    public CacheStats getStats() { return stats; }
+
+    /**
+     * Drops the failures that have outlived the negative TTL now, rather than when their argument is next asked for.
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        expireFailures(now);
+        for (Map.Entry<A, Future<V>> e : cache.entrySet()) {
+            if (isExpiredFailure(e.getValue(), now) && cache.remove(e.getKey(), e.getValue()))
+                stats.recordRemoval(RemovalCause.EXPIRED);
+        }
+    }
+
+    /**
+     * Returns the number of cached values and failures, including computations still in progress.
+     */
+    public int size() { return cache.size(); }
+
+    private void expireFailures(long now) {
+        for (Task<A, V> t = failures.peek(); t != null && isExpiredFailure(t, now); t = failures.peek()) {
+            if (failures.remove(t) && cache.remove(t.key, t))
+                stats.recordRemoval(RemovalCause.EXPIRED);
+        }
+    }
+
+    private boolean isExpiredFailure(Future<V> f, long now) {
+        if (!(f instanceof Task))
+            return false;
+        Task<?, V> task = (Task<?, V>) f;
+        return task.failed && now - task.failedAt >= failurePolicy.getNegativeTtlNanos();
+    }
+
+    /**
+     * A {@link FutureTask} that remembers its argument and when it failed.
+     */
+    private static final class Task<A, V> extends FutureTask<V> {
+        final A key;
+        volatile long failedAt;
+        volatile boolean failed;
+
+        Task(A key, Callable<V> callable) {
+            super(callable);
+            this.key = key;
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failedAt = System.nanoTime();
+            failed = true;
+            super.setException(t);
+        }
+    }
+
     /**
      * If the Throwable is an Error, throw it; if it is a RuntimeException return it, otherwise throw IllegalStateException
      */
@@ -40,6 +40,7 @@ public class FutureMemoizer<A, V> implements Computable<A, V> {
         try {
             return f.get();
         } catch (ExecutionException e) {
+            cache.remove(arg, f); // don't let a failure poison the argument forever
             throw launderThrowable(e.getCause());
         }
     }
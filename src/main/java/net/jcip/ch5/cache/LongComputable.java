@@ -0,0 +1,20 @@
+/*
+ * LongComputable.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+/**
+ * The LongComputable interface describes a function from long to long; it is {@link Computable} specialized for primitives, so
+ * that neither the argument nor the result is boxed.
+ */
+public interface LongComputable {
+    long compute(long arg) throws InterruptedException;
+}
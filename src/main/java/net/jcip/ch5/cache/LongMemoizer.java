@@ -0,0 +1,157 @@
+/*
+ * LongMemoizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link LongMemoizer} is {@link FinalMemoizer} for {@link LongComputable}. {@code FinalMemoizer<Long, Long>} spends a map node,
+ * a boxed key, a {@link java.util.concurrent.FutureTask} with its callable and a boxed value on every entry, well over a hundred
+ * bytes; here an entry is a slot in three parallel arrays, a {@code long} key, a {@code long} value and an {@code int} state,
+ * which with the table at most half full is about 40 bytes per entry and no objects at all.
+ * <p>
+ * The table uses open addressing with linear probing, and the state word takes the place of the future:
+ * <ul>
+ * <li>{@code EMPTY}: the slot is free; a caller claims it with a CAS to {@code CLAIMING};</li>
+ * <li>{@code CLAIMING}: the claimer is writing the key; others spin briefly until it is published;</li>
+ * <li>{@code COMPUTING}: the key is published and its value is being computed; callers for the same key wait;</li>
+ * <li>{@code DONE}: the value is published;</li>
+ * <li>{@code FAILED}: the computation threw; the next caller for the key claims the slot again with a CAS to {@code
+ * COMPUTING}.</li>
+ * </ul>
+ * Keys and values are plain array elements, published by the volatile write of the state that follows them. Waiting is done on
+ * one of a fixed set of striped monitors rather than on a per-entry object; the computing thread notifies the slot's stripe after
+ * writing the final state.
+ * <p>
+ * A failure is thrown only to the thread that computed it; the threads that were waiting for it retry, and one of them computes
+ * again. Entries are never removed, and the table does not grow: once {@code maximumSize} keys are stored, further keys are
+ * computed on every call without being memoized.
+ */
+@ThreadSafe
+public class LongMemoizer implements LongComputable {
+    private static final int EMPTY = 0;
+    private static final int CLAIMING = 1;
+    private static final int COMPUTING = 2;
+    private static final int DONE = 3;
+    private static final int FAILED = 4;
+    private static final int STRIPES = 64;
+
+    private final LongComputable c;
+    private final long[] keys;
+    private final long[] values;
+    private final AtomicIntegerArray states;
+    private final Object[] locks = new Object[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maximumSize;
+    private final int mask;
+    private final CacheStats stats = new CacheStats();
+
+    public LongMemoizer(LongComputable c, int maximumSize) {
+        if (maximumSize <= 0 || maximumSize > 1 << 29)
+            throw new IllegalArgumentException("maximumSize out of range: " + maximumSize);
+        int capacity = Integer.highestOneBit(maximumSize * 2 - 1) << 1;
+        this.c = c;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.states = new AtomicIntegerArray(capacity);
+        this.maximumSize = maximumSize;
+        this.mask = capacity - 1;
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+    }
+
+    public long compute(long arg) throws InterruptedException {
+        int i = (int) mix(arg) & mask;
+        for (int probes = 0; probes <= mask; ) {
+            int state = states.get(i);
+            if (state == EMPTY) {
+                if (size.get() >= maximumSize)
+                    break;
+                if (states.compareAndSet(i, EMPTY, CLAIMING)) {
+                    size.incrementAndGet();
+                    keys[i] = arg;
+                    states.set(i, COMPUTING);
+                    stats.recordMiss();
+                    return computeInto(i, arg);
+                }
+            } else if (state == CLAIMING) {
+                Thread.yield();
+            } else if (keys[i] != arg) {
+                i = (i + 1) & mask;
+                probes++;
+            } else if (state == DONE) {
+                stats.recordHit();
+                return values[i];
+            } else if (state == FAILED) {
+                if (states.compareAndSet(i, FAILED, COMPUTING)) {
+                    stats.recordMiss();
+                    return computeInto(i, arg);
+                }
+            } else {
+                stats.recordHit();
+                awaitCompletion(i);
+            }
+        }
+        stats.recordMiss();
+        return c.compute(arg);
+    }
+
+    /**
+     * Returns the number of keys stored, including those being computed and those whose computation failed.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private long computeInto(int i, long arg) throws InterruptedException {
+        stats.recordLoadStart();
+        long start = System.nanoTime();
+        int state = FAILED;
+        try {
+            long value = c.compute(arg);
+            values[i] = value;
+            state = DONE;
+            return value;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (state == DONE)
+                stats.recordLoadSuccess(nanos);
+            else
+                stats.recordLoadFailure(nanos);
+            states.set(i, state);
+            Object lock = locks[i & (STRIPES - 1)];
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void awaitCompletion(int i) throws InterruptedException {
+        Object lock = locks[i & (STRIPES - 1)];
+        synchronized (lock) {
+            while (states.get(i) == COMPUTING)
+                lock.wait();
+        }
+    }
+
+    private static long mix(long k) {
+        k = (k ^ (k >>> 33)) * 0xff51afd7ed558ccdL;
+        k = (k ^ (k >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return k ^ (k >>> 33);
+    }
+}
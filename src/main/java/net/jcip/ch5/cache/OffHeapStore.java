@@ -0,0 +1,207 @@
+/*
+ * OffHeapStore.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link OffHeapStore} is the off-heap tier of {@link TieredMemoizer}: values are serialized with a {@link Codec} into direct
+ * {@link ByteBuffer}s, so that only a small index entry per value stays on the heap.
+ * <p>
+ * Memory is allocated the way memcached does it. Direct buffers are allocated in slabs of {@code slabSize} bytes, up to {@code
+ * capacity}. Every slab is carved into chunks of a single size class, a power of two from {@value #MIN_CHUNK} bytes up to the
+ * slab size, and a value is stored in a chunk of the smallest class that fits it. Freed chunks go on their class's free list and
+ * are reused by the next value of that class, so there is no fragmentation to compact and no per-value allocation of direct
+ * memory. When a class has no free chunk and no slab is left to carve, the oldest value of that class is evicted to make room;
+ * a value whose class has never been given a slab is not stored. Slabs are never released, so the memory is given back only when
+ * the store becomes garbage.
+ * <p>
+ * The store is only used on heap-tier evictions and heap-tier misses, so a single lock guards it. Values are copied out of their
+ * chunk under the lock but decoded outside it.
+ */
+@ThreadSafe
+final class OffHeapStore<A, V> {
+    static final int MIN_CHUNK = 64;
+
+    private final Codec<V> codec;
+    private final int slabSize;
+    @GuardedBy("this") private final ByteBuffer[] slabs;
+    @GuardedBy("this") private final SizeClass<A>[] classes;
+    @GuardedBy("this") private final Map<A, Chunk> index = new HashMap<A, Chunk>();
+    @GuardedBy("this") private int slabCount;
+    @GuardedBy("this") private long usedBytes;
+    @GuardedBy("this") private long evictionCount;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OffHeapStore(Codec<V> codec, long capacity, int slabSize) {
+        if (slabSize < MIN_CHUNK || Integer.bitCount(slabSize) != 1)
+            throw new IllegalArgumentException("slab size must be a power of two of at least " + MIN_CHUNK);
+        if (capacity / slabSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many slabs: " + capacity / slabSize);
+        this.codec = codec;
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[(int) (capacity / slabSize)];
+        this.classes = new SizeClass[sizeClassOf(slabSize) + 1];
+        for (int i = 0; i < classes.length; i++)
+            classes[i] = new SizeClass<A>(MIN_CHUNK << i);
+    }
+
+    /**
+     * Stores {@code value}, replacing any value stored for {@code key}, and returns whether there was room for it.
+     */
+    boolean put(A key, V value) {
+        int length = codec.encodedSize(value);
+        if (length > slabSize)
+            return false;
+        synchronized (this) {
+            Chunk old = index.remove(key);
+            if (old != null)
+                release(key, old);
+            int sizeClass = sizeClassOf(length);
+            long address = allocate(sizeClass);
+            if (address < 0)
+                return false;
+            Chunk chunk = new Chunk(address, length, sizeClass);
+            try {
+                codec.encode(value, buffer(chunk));
+            } catch (RuntimeException e) {
+                classes[sizeClass].free.push(address);
+                throw e;
+            }
+            index.put(key, chunk);
+            classes[sizeClass].entries.put(key, chunk);
+            usedBytes += classes[sizeClass].chunkSize;
+            return true;
+        }
+    }
+
+    /**
+     * Removes and returns the value stored for {@code key}, or returns null if there is none.
+     */
+    V take(A key) {
+        ByteBuffer copy;
+        synchronized (this) {
+            Chunk chunk = index.remove(key);
+            if (chunk == null)
+                return null;
+            copy = ByteBuffer.allocate(chunk.length);
+            copy.put(buffer(chunk));
+            copy.flip();
+            release(key, chunk);
+        }
+        return codec.decode(copy);
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the bytes taken by the chunks holding values.
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the bytes of direct memory allocated in slabs.
+     */
+    synchronized long getAllocatedBytes() {
+        return (long) slabCount * slabSize;
+    }
+
+    synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @GuardedBy("this")
+    private long allocate(int sizeClass) {
+        SizeClass<A> c = classes[sizeClass];
+        Long free = c.free.poll();
+        if (free != null)
+            return free;
+        if (c.slab < 0 || c.next + c.chunkSize > slabSize) {
+            if (slabCount < slabs.length) {
+                c.slab = slabCount;
+                c.next = 0;
+                slabs[slabCount++] = ByteBuffer.allocateDirect(slabSize);
+            } else {
+                Iterator<Map.Entry<A, Chunk>> oldest = c.entries.entrySet().iterator();
+                if (!oldest.hasNext())
+                    return -1;
+                Map.Entry<A, Chunk> e = oldest.next();
+                oldest.remove();
+                index.remove(e.getKey());
+                usedBytes -= c.chunkSize;
+                evictionCount++;
+                return e.getValue().address;
+            }
+        }
+        long address = (long) c.slab << 32 | c.next;
+        c.next += c.chunkSize;
+        return address;
+    }
+
+    @GuardedBy("this")
+    private void release(A key, Chunk chunk) {
+        SizeClass<A> c = classes[chunk.sizeClass];
+        c.entries.remove(key);
+        c.free.push(chunk.address);
+        usedBytes -= c.chunkSize;
+    }
+
+    @GuardedBy("this")
+    private ByteBuffer buffer(Chunk chunk) {
+        ByteBuffer b = slabs[(int) (chunk.address >>> 32)].duplicate();
+        int offset = (int) chunk.address;
+        b.limit(offset + chunk.length).position(offset);
+        return b;
+    }
+
+    private static int sizeClassOf(int length) {
+        // includes length 0, for which the formula below would overflow to a class past the largest
+        if (length <= MIN_CHUNK)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_CHUNK);
+    }
+
+    private static final class Chunk {
+        final long address;
+        final int length;
+        final int sizeClass;
+
+        Chunk(long address, int length, int sizeClass) {
+            this.address = address;
+            this.length = length;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    private static final class SizeClass<A> {
+        final int chunkSize;
+        final ArrayDeque<Long> free = new ArrayDeque<Long>();
+        final LinkedHashMap<A, Chunk> entries = new LinkedHashMap<A, Chunk>();
+        int slab = -1;
+        int next;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+}
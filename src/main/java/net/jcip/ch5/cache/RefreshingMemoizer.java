@@ -0,0 +1,186 @@
+/*
+ * RefreshingMemoizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.jcip.annotations.ThreadSafe;
+
+import static net.jcip.ch5.cache.FinalMemoizer.launderThrowable;
+
+/**
+ * {@link RefreshingMemoizer} recomputes entries in the background before they go stale, so that a caller almost never has to
+ * wait for {@link Computable#compute(Object)} once the value is cached. Each entry has two ages:
+ * <ul>
+ * <li>once it is older than {@code refreshAfter}, the next read returns the cached value immediately and submits a refresh to
+ * the refresh executor;</li>
+ * <li>once it is older than {@code expireAfter}, it is too stale to serve, and the next read recomputes it in the calling thread,
+ * as {@link FinalMemoizer} would for a missing entry.</li>
+ * </ul>
+ * Between the two, callers are served the old value while the refresh runs. Refreshes are triggered by reads, so only entries
+ * that are actually in use are kept fresh; an entry nobody reads simply ages out.
+ * <p>
+ * At most one refresh per entry is in flight: a read starts one only if it wins a CAS on the entry's refreshing flag. A refresh
+ * that fails, or that the executor rejects, clears the flag again, and the old value keeps being served until a later read
+ * retries or the entry expires. The executor should be bounded (a {@link java.util.concurrent.ThreadPoolExecutor} with a bounded
+ * queue and the default abort policy), so that a burst of refreshes is throttled instead of piling up.
+ * <p>
+ * A refreshed value replaces the entry only if the entry is still the one that was refreshed, so a refresh can never resurrect
+ * an entry that has since expired and been recomputed.
+ */
+@ThreadSafe
+public class RefreshingMemoizer<A, V> implements Computable<A, V> {
+    private final ConcurrentMap<A, Entry<V>> cache = new ConcurrentHashMap<A, Entry<V>>();
+    private final Computable<A, V> c;
+    private final long refreshAfterNanos;
+    private final long expireAfterNanos;
+    private final Executor refreshExecutor;
+    private final CacheStats stats = new CacheStats();
+
+    /**
+     * @param refreshAfter    the age after which a read triggers a background refresh
+     * @param expireAfter     the age after which an entry is no longer served, or 0 to serve stale values until refreshed
+     * @param refreshExecutor the executor that runs refreshes
+     */
+    public RefreshingMemoizer(Computable<A, V> c, long refreshAfter, long expireAfter, TimeUnit unit, Executor refreshExecutor) {
+        if (refreshAfter <= 0 || expireAfter < 0 || (expireAfter != 0 && expireAfter < refreshAfter))
+            throw new IllegalArgumentException("refreshAfter must be positive and no greater than expireAfter");
+        this.c = c;
+        this.refreshAfterNanos = unit.toNanos(refreshAfter);
+        this.expireAfterNanos = expireAfter == 0 ? Long.MAX_VALUE : unit.toNanos(expireAfter);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public V compute(final A arg) throws InterruptedException {
+        while (true) {
+            Entry<V> e = cache.get(arg);
+            if (e != null && e.future.isDone() && System.nanoTime() - e.writeTime >= expireAfterNanos) {
+                if (cache.remove(arg, e))
+                    stats.recordRemoval(RemovalCause.EXPIRED);
+                e = null;
+            }
+            if (e == null) {
+                Callable<V> eval = new Callable<V>() {
+                    public V call() throws InterruptedException {
+                        return stats.recordLoad(c, arg);
+                    }
+                };
+                Entry<V> entry = new Entry<V>(eval);
+                e = cache.putIfAbsent(arg, entry);
+                if (e == null) {
+                    e = entry;
+                    stats.recordMiss();
+                    entry.load();
+                } else {
+                    stats.recordHit();
+                }
+            } else {
+                stats.recordHit();
+            }
+            try {
+                V value = e.future.get();
+                if (System.nanoTime() - e.writeTime >= refreshAfterNanos)
+                    refresh(arg, e);
+                return value;
+            } catch (CancellationException ex) {
+                if (cache.remove(arg, e))
+                    stats.recordRemoval(RemovalCause.FAILED);
+            } catch (ExecutionException ex) {
+                if (cache.remove(arg, e))
+                    stats.recordRemoval(RemovalCause.FAILED);
+                throw launderThrowable(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries, including those still being computed and those too stale to be served.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the statistics of this memoizer; background refreshes are counted as loads but not as misses.
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private void refresh(final A arg, final Entry<V> e) {
+        if (!e.refreshing.compareAndSet(false, true))
+            return;
+        try {
+            refreshExecutor.execute(new Runnable() {
+                public void run() {
+                    boolean replaced = false;
+                    try {
+                        V value = stats.recordLoad(c, arg);
+                        replaced = cache.replace(arg, e, new Entry<V>(value));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException ex) {
+                        // keep serving the old value; a later read retries
+                    } finally {
+                        if (!replaced)
+                            e.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            e.refreshing.set(false);
+        }
+    }
+
+    /**
+     * An entry's write time is set when its value is set, before the future completes, so a thread that has waited for the value
+     * never sees the time the load started.
+     */
+    private static final class Entry<V> {
+        final Future<V> future;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        private final FutureTask<V> task;
+        volatile long writeTime;
+
+        Entry(V value) {
+            this.future = CompletableFuture.completedFuture(value);
+            this.task = null;
+            this.writeTime = System.nanoTime();
+        }
+
+        Entry(final Callable<V> load) {
+            this.task = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    V value = load.call();
+                    writeTime = System.nanoTime();
+                    return value;
+                }
+            });
+            this.future = task;
+            this.writeTime = System.nanoTime();
+        }
+
+        void load() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * RemovalCause.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+/**
+ * Why a memoizer dropped an entry, as counted by {@link CacheStats}.
+ */
+public enum RemovalCause {
+    /** evicted to keep the memoizer within its size or weight bound */
+    SIZE,
+    /** dropped because it outlived its expiry */
+    EXPIRED,
+    /** dropped because its computation failed or was cancelled, so the next caller retries */
+    FAILED
+}
@@ -0,0 +1,98 @@
+/*
+ * SingleFlight.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.jcip.annotations.ThreadSafe;
+
+import static net.jcip.ch5.cache.FinalMemoizer.launderThrowable;
+
+/**
+ * {@link SingleFlight} coalesces concurrent calls for the same argument into one computation, using the same
+ * putIfAbsent-then-run {@link FutureTask} technique as {@link FinalMemoizer}. The difference is that it is not a cache: the entry
+ * is removed as soon as the computation finishes, so the map only ever holds computations that are in flight, and a later call
+ * computes afresh. All callers that joined a computation receive the very same result object.
+ * <p>
+ * A caller that gives up waiting in {@link #compute(Object, long, TimeUnit)} also removes the entry, if it is still the same one:
+ * a computation that has outlived someone's deadline should not keep collecting new waiters, so the next caller starts a new
+ * one. The abandoned computation still runs to completion on the thread that started it.
+ */
+@ThreadSafe
+public class SingleFlight<A, V> implements Computable<A, V> {
+    private final ConcurrentMap<A, FutureTask<V>> inFlight = new ConcurrentHashMap<A, FutureTask<V>>();
+    private final Computable<A, V> c;
+    private final CacheStats stats = new CacheStats();
+
+    public SingleFlight(Computable<A, V> c) { this.c = c; }
+
+    public V compute(A arg) throws InterruptedException {
+        try {
+            return compute(arg, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public V compute(final A arg, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        FutureTask<V> f = inFlight.get(arg);
+        if (f == null) {
+            Callable<V> eval = new Callable<V>() {
+                public V call() throws InterruptedException {
+                    return stats.recordLoad(c, arg);
+                }
+            };
+            FutureTask<V> ft = new FutureTask<V>(eval);
+            f = inFlight.putIfAbsent(arg, ft);
+            if (f == null) {
+                f = ft;
+                stats.recordMiss();
+                try {
+                    ft.run();
+                } finally {
+                    inFlight.remove(arg, ft);
+                }
+            } else {
+                stats.recordHit();
+            }
+        } else {
+            stats.recordHit();
+        }
+        try {
+            return f.get(timeout, unit);
+        } catch (TimeoutException e) {
+            inFlight.remove(arg, f);
+            throw e;
+        } catch (ExecutionException e) {
+            throw launderThrowable(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the statistics of this instance; a hit is a call that joined a computation already in flight.
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the number of computations currently in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * TieredMemoizer.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link TieredMemoizer} is a two-level memoizer for large values. The first tier is a {@link BoundedMemoizer} holding the
+ * {@code heapMaximumSize} most recently used values on the heap. Values it evicts are not thrown away but serialized with a
+ * {@link Codec} into an {@link OffHeapStore} of up to {@code offHeapCapacity} bytes of direct memory, where they cost the garbage
+ * collector nothing but a small index entry. A miss in the first tier looks in the second before computing: a value found there is
+ * removed from it and promoted back to the heap, so each value lives in one tier at a time.
+ * <p>
+ * The tiers are not updated atomically together. A caller that misses the heap tier just as the value is being moved between
+ * tiers may miss both and compute the value again, which costs time but never returns a wrong result.
+ * <p>
+ * Moving a value off the heap happens in whichever thread's compute triggered the eviction, so it never fails that call: a value
+ * that the codec cannot encode, or that does not fit in the off-heap tier, is dropped and counted by {@link
+ * #getDroppedSpillCount()}.
+ */
+@ThreadSafe
+public class TieredMemoizer<A, V> implements Computable<A, V> {
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private final OffHeapStore<A, V> offHeap;
+    private final BoundedMemoizer<A, V> heap;
+    private final LongAdder droppedSpills = new LongAdder();
+
+    public TieredMemoizer(Computable<A, V> c, long heapMaximumSize, Codec<V> codec, long offHeapCapacity) {
+        this(c, heapMaximumSize, codec, offHeapCapacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param heapMaximumSize the number of values kept on the heap
+     * @param codec           the codec that serializes values into the off-heap tier
+     * @param offHeapCapacity the bytes of direct memory the off-heap tier may allocate
+     * @param slabSize        the bytes allocated at a time for the off-heap tier, a power of two; larger values are not stored
+     */
+    public TieredMemoizer(final Computable<A, V> c, long heapMaximumSize, Codec<V> codec, long offHeapCapacity, int slabSize) {
+        this.offHeap = new OffHeapStore<A, V>(codec, offHeapCapacity, slabSize);
+        Computable<A, V> loader = new Computable<A, V>() {
+            public V compute(A arg) throws InterruptedException {
+                V value = offHeap.take(arg);
+                return value != null ? value : c.compute(arg);
+            }
+        };
+        this.heap = new BoundedMemoizer<A, V>(loader, heapMaximumSize) {
+            @Override
+            protected void onEviction(A key, V value) {
+                if (value == null)
+                    return;
+                try {
+                    if (!offHeap.put(key, value))
+                        droppedSpills.increment();
+                } catch (RuntimeException e) {
+                    droppedSpills.increment();
+                }
+            }
+        };
+    }
+
+    public V compute(A arg) throws InterruptedException {
+        return heap.compute(arg);
+    }
+
+    /**
+     * Returns the statistics of the heap tier. A value promoted from the off-heap tier counts as a miss and a (cheap) load;
+     * evictions from the off-heap tier are counted by {@link #getOffHeapEvictionCount()}.
+     */
+    public CacheStats getStats() {
+        return heap.getStats();
+    }
+
+    public int getHeapSize() {
+        return heap.size();
+    }
+
+    public int getOffHeapSize() {
+        return offHeap.size();
+    }
+
+    /**
+     * Returns the bytes of the off-heap tier taken by values.
+     */
+    public long getOffHeapUsedBytes() {
+        return offHeap.getUsedBytes();
+    }
+
+    /**
+     * Returns the bytes of direct memory allocated by the off-heap tier.
+     */
+    public long getOffHeapAllocatedBytes() {
+        return offHeap.getAllocatedBytes();
+    }
+
+    /**
+     * Returns the number of values evicted from the off-heap tier to make room for others.
+     */
+    public long getOffHeapEvictionCount() {
+        return offHeap.getEvictionCount();
+    }
+
+    /**
+     * Returns the number of values evicted from the heap tier that could not be moved off the heap, because the codec failed or
+     * there was no room for them.
+     */
+    public long getDroppedSpillCount() {
+        return droppedSpills.sum();
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Weigher.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.ch5.cache;
+
+/**
+ * A Weigher<A,V> tells a bounded memoizer how much of its capacity an entry uses, for instance its approximate size in bytes. The
+ * weight of an entry is computed once, when its value has been computed, and must be non-negative.
+ * @param <A> the input type
+ * @param <V> the result type
+ */
+public interface Weigher<A, V> {
+    int weigh(A arg, V value);
+}
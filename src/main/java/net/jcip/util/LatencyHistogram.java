@@ -0,0 +1,111 @@
+/*
+ * LatencyHistogram.java
+ *
+ * Copyright (c) 2000-2019 MotionPoint Corporation. All Rights Reserved.
+ *
+ * This software is the confidential and proprietary information of
+ * MotionPoint Corp. ("Confidential Information").  You shall not
+ * disclose such Confidential Information and shall use it only in
+ * accordance with the terms of the license agreement you entered into
+ * with MotionPoint.
+ */
+package net.jcip.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * {@link LatencyHistogram} records durations in nanoseconds into log-linear buckets, in the style of HdrHistogram: each power of
+ * two is split into {@value #SUB_BUCKETS} equal sub-buckets, so every recorded value is known to within about 3% regardless of
+ * its magnitude, with a fixed number of buckets covering 1ns to about 18 minutes. Longer values are counted in the last bucket.
+ * <p>
+ * Each bucket is a {@link LongAdder}, whose striped cells let many threads record at once without contending on one cache line
+ * and without taking any lock. Recording never allocates once the adders have expanded to the level of contention they see.
+ * <p>
+ * Reads sum the adders without stopping writers, so a percentile computed while values are being recorded reflects some
+ * interleaving of the concurrent updates rather than an atomic snapshot. That is the usual trade-off for statistics: readers
+ * never slow down the request path.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[indexOf(nanos)].increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder c : counts)
+            count += c.sum();
+        return count;
+    }
+
+    public double getMean(TimeUnit unit) {
+        long count = getCount();
+        return count == 0 ? 0.0 : (double) totalNanos.sum() / count / unit.toNanos(1);
+    }
+
+    /**
+     * Returns the value at the given percentile (0 to 100) in nanoseconds, as the midpoint of the bucket it fell in, or 0 if nothing
+     * has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return midpointOf(i);
+        }
+        return midpointOf(snapshot.length - 1);
+    }
+
+    public void reset() {
+        for (LongAdder c : counts)
+            c.reset();
+        totalNanos.reset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >= 1L << (MAX_EXPONENT + 1))
+            return BUCKETS - 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long midpointOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + width / 2;
+    }
+}